@@ -0,0 +1,203 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of MrX's belief sets, the nodes he can be at given his last reveal and the tickets used since
+ * Sets are keyed by (reveal node, transport sequence) packed in a long and are built one ticket at a time
+ * from the set of the shorter sequence, so a lookup costs at most one propagation step
+ * One cache is shared by every search on the same map, see {@link MapTables#beliefs}
+ * When the cache is full it is cleared
+ */
+public final class BeliefCache {
+    /** key of sets that are too long to be cached */
+    public static final long NONE = -1;
+
+    static final int NODE_BITS = 17;
+    private static final int LENGTH_BITS = 5;
+    private static final int STEP_BITS = 2;
+    private static final int MAX_STEPS = (64 - NODE_BITS - LENGTH_BITS) / STEP_BITS;
+    private static final long MEMORY_BUDGET = 64L << 20;
+
+    private final MapTables tables;
+    private final int capacity;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * A belief set, must not be modified
+     */
+    public static final class Entry {
+        public final long key;
+        /** number of nodes in the set */
+        public final int size;
+        private final long[] set;
+
+        private Entry(long key, long[] set) {
+            this.key = key;
+            this.set = set;
+            int size = 0;
+            for (long word : set)
+                size += Long.bitCount(word);
+            this.size = size;
+        }
+
+        public boolean contains(int node) {
+            return (set[node >>> 6] & 1L << node) != 0;
+        }
+
+        /**
+         * @param nodes nodes to leave out, negative values are ignored
+         * @return number of nodes of the set that aren't in the given ones
+         */
+        public int sizeExcluding(int[] nodes) {
+            int count = size;
+            for (int node : nodes)
+                if (node >= 0 && contains(node))
+                    count--;
+            return count;
+        }
+    }
+
+    BeliefCache(MapTables tables) {
+        if (tables.size >= 1 << NODE_BITS)
+            throw new IllegalArgumentException("Maps are limited to " + (1 << NODE_BITS) + " nodes");
+        this.tables = tables;
+        long entryBytes = 8L * tables.newNodeSet().length + 64;
+        this.capacity = (int) Math.max(1024, Math.min(1 << 20, MEMORY_BUDGET / entryBytes));
+    }
+
+    /**
+     * Belief set right after MrX's been revealed at the node
+     * @param node revealed node
+     * @return entry
+     */
+    public Entry reveal(int node) {
+        long key = rootKey(node);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        long[] set = tables.newNodeSet();
+        set[node >>> 6] |= 1L << node;
+        return put(new Entry(key, set));
+    }
+
+    /**
+     * Belief set after MrX's used one more ticket
+     * @param parent set before the move
+     * @param ticket ticket used
+     * @return entry
+     */
+    public Entry extend(Entry parent, ScotlandYard.Ticket ticket) {
+        return get(extendKey(parent.key, ticket), parent, ticket);
+    }
+
+    /**
+     * Belief set given MrX's travel log
+     * @param log travel log
+     * @return entry, null if MrX hasn't been revealed yet
+     */
+    public Entry lookup(List<LogEntry> log) {
+        int reveal = log.size() - 1;
+        while (reveal >= 0 && log.get(reveal).location().isEmpty())
+            reveal--;
+        if (reveal < 0)
+            return null;
+
+        long key = rootKey(log.get(reveal).location().get());
+        for (int i = reveal + 1; i < log.size(); i++)
+            key = extendKey(key, log.get(i).ticket());
+        Entry entry = key == NONE ? null : entries.get(key);
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+        entry = reveal(log.get(reveal).location().get());
+        for (int i = reveal + 1; i < log.size(); i++)
+            entry = extend(entry, log.get(i).ticket());
+        return entry;
+    }
+
+    private Entry get(long key, Entry parent, ScotlandYard.Ticket ticket) {
+        Entry entry = key == NONE ? null : entries.get(key);
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        long[] set = tables.newNodeSet();
+        tables.propagate(parent.set, Utils.getCorrespondingTransport(ticket), set);
+        return put(new Entry(key, set));
+    }
+
+    private Entry put(Entry entry) {
+        if (entry.key == NONE)
+            return entry;
+        if (entries.size() >= capacity)
+            entries.clear();
+        Entry previous = entries.putIfAbsent(entry.key, entry);
+        return previous == null ? entry : previous;
+    }
+
+    private static long rootKey(int node) {
+        return node;
+    }
+
+    /**
+     * Key layout: bits 0-16 reveal node, bits 17-21 number of steps, then 2 bits per step
+     */
+    private static long extendKey(long key, ScotlandYard.Ticket ticket) {
+        if (key == NONE)
+            return NONE;
+        int steps = (int) (key >>> NODE_BITS) & ((1 << LENGTH_BITS) - 1);
+        if (steps == MAX_STEPS)
+            return NONE;
+        long code;
+        switch (ticket) {
+            case TAXI: code = 0; break;
+            case BUS: code = 1; break;
+            case UNDERGROUND: code = 2; break;
+            default: code = 3;
+        }
+        long withoutLength = key & ~(((1L << LENGTH_BITS) - 1) << NODE_BITS);
+        return withoutLength
+                | (long) (steps + 1) << NODE_BITS
+                | code << (NODE_BITS + LENGTH_BITS + STEP_BITS * steps);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return hits / lookups, 0 if there were none
+     */
+    public double getHitRate() {
+        long hits = getHits(), total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BeliefCache{entries=%d, hits=%d, misses=%d, hitRate=%.3f}",
+                size(), getHits(), getMisses(), getHitRate());
+    }
+}
@@ -0,0 +1,397 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Evaluation(state) =
+ *        w0 * min(distance(MrX, detective))
+ *      + w1 * sum(distance(MrX, detective))
+ *      + w2 * #MrXSecreteTickets
+ *      + w3 * possibleLocationOfMrX
+ * with the weights given by {@link EvaluationWeights}
+ * Credit to @see https://dke.maastrichtuniversity.nl/m.winands/documents/TCAIG_ScotlandYard.pdf [Section V-C]
+ * and @see https://incoherency.co.uk/blog/stories/scotland-yard.html
+ *
+ * The batch entry point computes the children's values from the parent and the moves without advancing the parent:
+ * the detectives' locations, MrX's tickets and belief set are read once,
+ * and belief sets after a MrX move come from the map's {@link BeliefCache}
+ * Children that might end the game in another way than a capture (last two rounds, a detective that may get stuck,
+ * MrX surrounded) are advanced and evaluated one by one instead
+ *
+ * Between {@link #enter} and the end of the search, the features of the position at the end of the searched path
+ * are kept up to date as moves are made and unmade: each detective's distance to MrX and their sum, MrX's secret
+ * tickets, his belief set and the detectives' tickets, each move changing O(1) of them (all the distances for MrX)
+ * Positions on the path, and frontier nodes' parents, are then evaluated without reading the board
+ * Not thread-safe, every search needs its own instance
+ */
+public class DefaultEvaluator implements Evaluator {
+    private static final Piece.Detective[] detectivePieces = Piece.Detective.values();
+    private static final ScotlandYard.Ticket[] detectiveTickets =
+            {ScotlandYard.Ticket.TAXI, ScotlandYard.Ticket.BUS, ScotlandYard.Ticket.UNDERGROUND};
+
+    private final MapTables tables;
+    private final ImmutableList<Boolean> rounds;
+    private final EvaluationWeights weights;
+    private final BeliefCache beliefs;
+
+    // scratch buffer reused between calls
+    private final int[] detectives = new int[detectivePieces.length];
+
+    // position at the end of the searched path, valid while pathDepth >= 0
+    private static final int FRAME_INTS =
+            4 + 2 * detectivePieces.length + detectivePieces.length * detectiveTickets.length;
+    private int pathDepth = -1;
+    private int mrX;
+    private int round;
+    private int secret;
+    private int distanceSum;
+    @Nullable private BeliefCache.Entry belief;
+    private final int[] pathDetectives = new int[detectivePieces.length];
+    private final int[] distances = new int[detectivePieces.length];
+    /** [detective * 3 + ticket]: detectives' tickets of {@link #detectiveTickets} */
+    private final int[] tickets = new int[detectivePieces.length * detectiveTickets.length];
+    // one frame per made move, holding the position before it
+    private int[] frames = new int[FRAME_INTS * 32];
+    private BeliefCache.Entry[] beliefFrames = new BeliefCache.Entry[32];
+
+    /**
+     * @param tables tables of the map
+     * @param rounds reveal rounds of the game
+     * @param weights coefficients of the features
+     */
+    public DefaultEvaluator(MapTables tables, ImmutableList<Boolean> rounds, EvaluationWeights weights) {
+        this.tables = tables;
+        this.rounds = rounds;
+        this.weights = weights;
+        this.beliefs = tables.beliefs;
+    }
+
+    @Override
+    public double evaluate(Board state, int mrXLocation) {
+        if (!state.getWinner().isEmpty())
+            return Evaluator.terminal(state);
+        if (follows(state, mrXLocation)) {
+            int min = Integer.MAX_VALUE;
+            for (int d = 0; d < pathDetectives.length; d++)
+                if (pathDetectives[d] >= 0)
+                    min = Math.min(min, distances[d]);
+            int possible = belief != null ? belief.sizeExcluding(pathDetectives) : tables.nodeCount;
+            return weights.score(min, distanceSum, secret, possible);
+        }
+        return evaluateBoard(state, mrXLocation);
+    }
+
+    /**
+     * Evaluate a position reading every feature from the board
+     */
+    private double evaluateBoard(Board state, int mrXLocation) {
+        if (!state.getWinner().isEmpty())
+            return Evaluator.terminal(state);
+        readDetectives(state);
+        int[] distances = tables.distancesFrom(mrXLocation);
+        int sum = 0;
+        int min = Integer.MAX_VALUE;
+        for (int location : detectives) {
+            if (location < 0)
+                continue;
+            min = Math.min(min, distances[location]);
+            sum += distances[location];
+        }
+        var belief = beliefs.lookup(state.getMrXTravelLog());
+        int possible = belief != null ? belief.sizeExcluding(detectives) : tables.nodeCount;
+        return weights.score(min, sum, countSecretTickets(state), possible);
+    }
+
+    @Override
+    public void evaluateChildren(Board.GameState parent, int mrXLocation, List<Move> moves, double[] scores) {
+        boolean followed = follows(parent, mrXLocation);
+        int round = followed ? this.round : parent.getMrXTravelLog().size();
+        readDetectives(parent, followed);
+        if (round + 2 >= rounds.size() || !detectivesFree(parent, followed)) {
+            for (int i = 0; i < moves.size(); i++) {
+                Move move = moves.get(i);
+                scores[i] = evaluateBoard(parent.advance(move),
+                        move.commencedBy().isMrX() ? Evaluator.finalDestination(move) : mrXLocation);
+            }
+            return;
+        }
+        var belief = followed ? this.belief : beliefs.lookup(parent.getMrXTravelLog());
+        boolean revealed = belief != null;
+        int secret = followed ? this.secret : countSecretTickets(parent);
+
+        int[] mrXDistances = tables.distancesFrom(mrXLocation);
+        int beliefCount = revealed ? belief.size : 0;
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i);
+            if (move.commencedBy().isMrX()) {
+                scores[i] = evaluateMrXChild(move, round, belief, secret);
+                continue;
+            }
+            int mover = ((Piece.Detective) move.commencedBy()).ordinal();
+            int destination = ((Move.SingleMove) move).destination;
+            if (destination == mrXLocation) {
+                scores[i] = LOSS;
+                continue;
+            }
+            if (surrounded(mrXLocation, mover, destination)) {
+                scores[i] = evaluateBoard(parent.advance(move), mrXLocation);
+                readDetectives(parent, followed);
+                continue;
+            }
+            int sum = 0;
+            int min = Integer.MAX_VALUE;
+            int possible = beliefCount;
+            for (int d = 0; d < detectives.length; d++) {
+                int location = d == mover ? destination : detectives[d];
+                if (location < 0)
+                    continue;
+                min = Math.min(min, mrXDistances[location]);
+                sum += mrXDistances[location];
+                if (revealed && belief.contains(location))
+                    possible--;
+            }
+            scores[i] = weights.score(min, sum, secret, revealed ? possible : tables.nodeCount);
+        }
+    }
+
+    /**
+     * Value of the child reached with MrX's move, the detectives haven't moved
+     * @param move MrX's move
+     * @param round index of the move's first log entry
+     * @param belief parent's belief set, null if MrX hasn't been revealed yet
+     * @param secret MrX's secret tickets in the parent
+     * @return value
+     */
+    private double evaluateMrXChild(Move move, int round, @Nullable BeliefCache.Entry belief, int secret) {
+        int destination = Evaluator.finalDestination(move);
+        int[] distances = tables.distancesFrom(destination);
+        int sum = 0;
+        int min = Integer.MAX_VALUE;
+        for (int location : detectives) {
+            if (location < 0)
+                continue;
+            min = Math.min(min, distances[location]);
+            sum += distances[location];
+        }
+
+        int possible;
+        if (move instanceof Move.DoubleMove) {
+            var dm = (Move.DoubleMove) move;
+            secret -= (dm.ticket1 == ScotlandYard.Ticket.SECRET ? 1 : 0) + (dm.ticket2 == ScotlandYard.Ticket.SECRET ? 1 : 0);
+            if (isReveal(round + 1)) {
+                possible = 1;
+            } else if (isReveal(round)) {
+                // revealed at the intermediate node then one hop away from it
+                possible = beliefs.extend(beliefs.reveal(dm.destination1), dm.ticket2).sizeExcluding(detectives);
+            } else if (belief != null) {
+                possible = beliefs.extend(beliefs.extend(belief, dm.ticket1), dm.ticket2).sizeExcluding(detectives);
+            } else {
+                possible = tables.nodeCount;
+            }
+        } else {
+            var sm = (Move.SingleMove) move;
+            if (sm.ticket == ScotlandYard.Ticket.SECRET)
+                secret--;
+            if (isReveal(round))
+                possible = 1;
+            else if (belief != null)
+                possible = beliefs.extend(belief, sm.ticket).sizeExcluding(detectives);
+            else
+                possible = tables.nodeCount;
+        }
+        return weights.score(min, sum, secret, possible);
+    }
+
+    private boolean isReveal(int round) {
+        return round < rounds.size() && rounds.get(round);
+    }
+
+    /**
+     * Whether every detective has two tickets and two free neighbours it has tickets for,
+     * so that no single detective move can leave all of them stuck
+     * @param state parent state, with the detectives already read
+     * @param followed whether the state is the end of the searched path, whose tickets are kept
+     * @return t/f
+     */
+    private boolean detectivesFree(Board state, boolean followed) {
+        for (int d = 0; d < detectivePieces.length; d++) {
+            if (detectives[d] < 0)
+                continue;
+            var board = followed ? null : state.getPlayerTickets(detectivePieces[d]).get();
+            int total = 0;
+            int free = 0;
+            for (int t = 0; t < detectiveTickets.length; t++) {
+                var ticket = detectiveTickets[t];
+                int count = followed ? tickets[d * detectiveTickets.length + t] : board.getCount(ticket);
+                total += count;
+                if (count == 0)
+                    continue;
+                for (int next : tables.neighbours(detectives[d], Utils.getCorrespondingTransport(ticket)))
+                    if (!occupied(next, -1, -1))
+                        free++;
+            }
+            if (total < 2 || free < 2)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether every neighbour of MrX is occupied once the mover has moved
+     * @param mrXLocation MrX's location
+     * @param mover index of the moving detective
+     * @param destination mover's destination
+     * @return t/f
+     */
+    private boolean surrounded(int mrXLocation, int mover, int destination) {
+        for (int next : tables.neighbours(mrXLocation))
+            if (!occupied(next, mover, destination))
+                return false;
+        return true;
+    }
+
+    private boolean occupied(int node, int mover, int destination) {
+        for (int d = 0; d < detectives.length; d++)
+            if ((d == mover ? destination : detectives[d]) == node)
+                return true;
+        return false;
+    }
+
+    private void readDetectives(Board state) {
+        for (int d = 0; d < detectivePieces.length; d++)
+            detectives[d] = state.getDetectiveLocation(detectivePieces[d]).orElse(-1);
+    }
+
+    private void readDetectives(Board state, boolean followed) {
+        if (followed)
+            System.arraycopy(pathDetectives, 0, detectives, 0, detectives.length);
+        else
+            readDetectives(state);
+    }
+
+    /**
+     * Whether the position is the end of the searched path, assuming it's on the path: the search only ever
+     * evaluates positions on the path or their children, which differ in MrX's location or round unless
+     * a detective moved, and those are only evaluated through {@link #evaluateBoard}
+     */
+    private boolean follows(Board state, int mrXLocation) {
+        return pathDepth >= 0 && mrXLocation == mrX && state.getMrXTravelLog().size() == round;
+    }
+
+    @Override
+    public void enter(Board.GameState root, int mrXLocation) {
+        pathDepth = 0;
+        mrX = mrXLocation;
+        round = root.getMrXTravelLog().size();
+        secret = countSecretTickets(root);
+        belief = beliefs.lookup(root.getMrXTravelLog());
+        readDetectives(root);
+        System.arraycopy(detectives, 0, pathDetectives, 0, detectives.length);
+        for (int d = 0; d < detectivePieces.length; d++) {
+            var board = root.getPlayerTickets(detectivePieces[d]);
+            for (int t = 0; t < detectiveTickets.length; t++)
+                tickets[d * detectiveTickets.length + t] =
+                        board.isPresent() ? board.get().getCount(detectiveTickets[t]) : 0;
+        }
+        updateDistances();
+    }
+
+    @Override
+    public void make(Move move) {
+        if (pathDepth < 0)
+            return;
+        saveFrame();
+        if (move.commencedBy().isMrX()) {
+            if (move instanceof Move.DoubleMove) {
+                var dm = (Move.DoubleMove) move;
+                moveMrX(dm.destination1, dm.ticket1);
+                moveMrX(dm.destination2, dm.ticket2);
+            } else {
+                var sm = (Move.SingleMove) move;
+                moveMrX(sm.destination, sm.ticket);
+            }
+            updateDistances();
+        } else {
+            var sm = (Move.SingleMove) move;
+            int d = ((Piece.Detective) sm.commencedBy()).ordinal();
+            for (int t = 0; t < detectiveTickets.length; t++)
+                if (detectiveTickets[t] == sm.ticket)
+                    tickets[d * detectiveTickets.length + t]--;
+            pathDetectives[d] = sm.destination;
+            int distance = tables.distancesFrom(mrX)[sm.destination];
+            distanceSum += distance - distances[d];
+            distances[d] = distance;
+        }
+    }
+
+    @Override
+    public void unmake() {
+        if (pathDepth <= 0)
+            return;
+        pathDepth--;
+        int base = pathDepth * FRAME_INTS;
+        mrX = frames[base];
+        round = frames[base + 1];
+        secret = frames[base + 2];
+        distanceSum = frames[base + 3];
+        base += 4;
+        System.arraycopy(frames, base, pathDetectives, 0, pathDetectives.length);
+        base += pathDetectives.length;
+        System.arraycopy(frames, base, distances, 0, distances.length);
+        base += distances.length;
+        System.arraycopy(frames, base, tickets, 0, tickets.length);
+        belief = beliefFrames[pathDepth];
+    }
+
+    private void saveFrame() {
+        if ((pathDepth + 1) * FRAME_INTS > frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+            beliefFrames = Arrays.copyOf(beliefFrames, beliefFrames.length * 2);
+        }
+        int base = pathDepth * FRAME_INTS;
+        frames[base] = mrX;
+        frames[base + 1] = round;
+        frames[base + 2] = secret;
+        frames[base + 3] = distanceSum;
+        base += 4;
+        System.arraycopy(pathDetectives, 0, frames, base, pathDetectives.length);
+        base += pathDetectives.length;
+        System.arraycopy(distances, 0, frames, base, distances.length);
+        base += distances.length;
+        System.arraycopy(tickets, 0, frames, base, tickets.length);
+        beliefFrames[pathDepth] = belief;
+        pathDepth++;
+    }
+
+    /**
+     * One leg of MrX's move: his location, secret tickets, belief set and round, not the distances
+     */
+    private void moveMrX(int destination, ScotlandYard.Ticket ticket) {
+        mrX = destination;
+        if (ticket == ScotlandYard.Ticket.SECRET)
+            secret--;
+        if (isReveal(round))
+            belief = beliefs.reveal(destination);
+        else if (belief != null)
+            belief = beliefs.extend(belief, ticket);
+        round++;
+    }
+
+    private void updateDistances() {
+        int[] row = tables.distancesFrom(mrX);
+        distanceSum = 0;
+        for (int d = 0; d < pathDetectives.length; d++) {
+            distances[d] = pathDetectives[d] >= 0 ? row[pathDetectives[d]] : 0;
+            distanceSum += distances[d];
+        }
+    }
+
+    private static int countSecretTickets(Board state) {
+        return state.getPlayerTickets(Piece.MrX.MRX).get().getCount(ScotlandYard.Ticket.SECRET);
+    }
+}
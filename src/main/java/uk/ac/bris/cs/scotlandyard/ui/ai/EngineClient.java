@@ -0,0 +1,91 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.wskit.RemoteEndpoint;
+import uk.ac.bris.cs.wskit.WebSocketListener;
+import uk.ac.bris.cs.wskit.WebSockets;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client of {@link EngineServer} matching replies to requests by id, so any number of requests can be pipelined
+ * on its connection
+ */
+public final class EngineClient implements Closeable {
+    private final Map<Integer, CompletableFuture<EngineProtocol.Reply>> pending = new ConcurrentHashMap<>();
+    private final Session session;
+
+    private EngineClient(String url) throws IOException {
+        var config = WebSockets.createClientConfig(EngineProtocol.Codec.class, EngineProtocol.Codec.class);
+        try {
+            this.session = WebSockets.connect(url, config, new WebSocketListener<Object, Object>() {
+                @Override
+                public void onMessage(Object message, RemoteEndpoint<Object> remote) {
+                    var reply = (EngineProtocol.Reply) message;
+                    var future = pending.remove(reply.id);
+                    if (future != null)
+                        future.complete(reply);
+                }
+
+                @Override
+                public void onClosed(CloseReason.CloseCodes code, String reason) {
+                    var closed = new IOException("Connection closed: " + code + " " + reason);
+                    pending.values().forEach(future -> future.completeExceptionally(closed));
+                }
+            }).get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IOException("Can't connect to " + url, e);
+        }
+    }
+
+    /**
+     * @param url endpoint, e.g. ws://localhost:8025/engine
+     * @return connected client
+     * @throws IOException if the connection couldn't be opened within 10 seconds
+     */
+    public static EngineClient connect(String url) throws IOException {
+        return new EngineClient(url);
+    }
+
+    /**
+     * Send a request without waiting for earlier ones to be answered
+     * @param request request, its id must not be pending already
+     * @return reply, completes exceptionally if the connection closes first
+     */
+    public CompletableFuture<EngineProtocol.Reply> send(EngineProtocol.Request request) {
+        var reply = new CompletableFuture<EngineProtocol.Reply>();
+        if (pending.putIfAbsent(request.id, reply) != null)
+            throw new IllegalArgumentException("Request " + request.id + " is already pending");
+        session.getAsyncRemote().sendObject(request, result -> {
+            if (!result.isOK() && pending.remove(request.id, reply))
+                reply.completeExceptionally(result.getException());
+        });
+        return reply;
+    }
+
+    /**
+     * Send raw bytes, for testing how the server handles malformed messages
+     */
+    void sendBytes(ByteBuffer bytes) throws IOException {
+        session.getBasicRemote().sendBinary(bytes);
+    }
+
+    /**
+     * Register a reply future for an id sent by {@link #sendBytes}
+     */
+    CompletableFuture<EngineProtocol.Reply> expect(int id) {
+        return pending.computeIfAbsent(id, key -> new CompletableFuture<>());
+    }
+
+    @Override
+    public void close() throws IOException {
+        session.close();
+    }
+}
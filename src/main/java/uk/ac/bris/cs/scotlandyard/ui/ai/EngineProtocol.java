@@ -0,0 +1,237 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.GameSetup;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nullable;
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.Encoder;
+import javax.websocket.EndpointConfig;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Binary messages between {@link EngineServer} and its clients, one message per websocket frame
+ * Positions are sent as the game so far, in the {@link GameRecord} record format
+ * <pre>
+ * request = byte REQUEST, int id, int budgetMillis, record
+ * reply   = byte REPLY, int id, byte status,
+ *           OK: short source, short header (player 0, MrX), short destination1, short destination2, byte depth
+ *           ERROR, BUSY: short length, byte message[length] (UTF-8)
+ * </pre>
+ * Ids are chosen by the client and echoed back, replies come in the order searches finish
+ */
+public final class EngineProtocol {
+    static final byte REQUEST = 1;
+    static final byte REPLY = 2;
+    private static final int REQUEST_HEADER_BYTES = 1 + 4 + 4;
+
+    private EngineProtocol() {}
+
+    /**
+     * A position for MrX to move in
+     */
+    public static final class Request {
+        public final int id;
+        /** time the server may search for */
+        public final int budgetMillis;
+        private final ByteBuffer record;
+
+        private Request(int id, int budgetMillis, ByteBuffer record) {
+            this.id = id;
+            this.budgetMillis = budgetMillis;
+            this.record = record;
+        }
+
+        /**
+         * @param id id echoed by the reply
+         * @param budgetMillis time the server may search for
+         * @param startLocations MrX's location followed by the detectives' at the start of the game
+         * @param moves moves played since, of a game on the standard map and rounds with default tickets
+         * @return request
+         */
+        public static Request of(int id, int budgetMillis, int[] startLocations, List<Move> moves) {
+            return of(id, budgetMillis, GameRecordWriter.defaultPlayers(startLocations), moves);
+        }
+
+        /**
+         * @param id id echoed by the reply
+         * @param budgetMillis time the server may search for
+         * @param players players at the start of the game, MrX first
+         * @param moves moves played since, of a game on the standard map and rounds
+         * @return request
+         */
+        public static Request of(int id, int budgetMillis, List<Player> players, List<Move> moves) {
+            var record = ByteBuffer.allocate(GameRecordWriter.recordBytes(players.size(), moves));
+            GameRecordWriter.put(record, GameRecord.STANDARD_MAP, ScotlandYard.STANDARD24ROUNDS,
+                    players, moves, GameRecord.Winner.NONE);
+            return new Request(id, budgetMillis, record.flip());
+        }
+
+        /**
+         * Replay the game of the request, allocates
+         * @return position after the last move
+         * @throws IllegalArgumentException if the record is malformed, isn't on the standard map or holds an
+         * illegal move
+         */
+        public Board.GameState position() {
+            try {
+                var reader = GameRecordReader.wrap(record);
+                if (!reader.nextRecord())
+                    throw new IllegalArgumentException("No game in request");
+                if (reader.mapId() != GameRecord.STANDARD_MAP)
+                    throw new IllegalArgumentException("Unknown map " + reader.mapId());
+                return reader.replay(new GameSetup(ScotlandYard.standardGraph(), ScotlandYard.STANDARD24ROUNDS));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Truncated game record", e);
+            }
+        }
+    }
+
+    /**
+     * Answer to a {@link Request}
+     */
+    public static final class Reply {
+        public enum Status {
+            /** the reply holds a move */
+            OK,
+            /** the request couldn't be served, see the message */
+            ERROR,
+            /** too many requests of the connection are being searched, try again later */
+            BUSY
+        }
+
+        public final int id;
+        public final Status status;
+        /** move picked, null unless {@link Status#OK} */
+        @Nullable public final Move move;
+        /** depth completed by the search */
+        public final int depth;
+        /** reason for an {@link Status#ERROR} or {@link Status#BUSY} reply, empty otherwise */
+        public final String message;
+
+        private Reply(int id, Status status, @Nullable Move move, int depth, String message) {
+            this.id = id;
+            this.status = status;
+            this.move = move;
+            this.depth = depth;
+            this.message = message;
+        }
+
+        public static Reply ok(int id, Move move, int depth) {
+            return new Reply(id, Status.OK, move, depth, "");
+        }
+
+        public static Reply error(int id, Status status, String message) {
+            return new Reply(id, status, null, 0, message);
+        }
+
+        @Override
+        public String toString() {
+            return "Reply{" + id + " " + status + (move != null ? " " + move + " depth " + depth : " " + message) + "}";
+        }
+    }
+
+    /**
+     * Websocket codec of {@link Request} and {@link Reply}, used by both ends
+     */
+    public static final class Codec implements Encoder.Binary<Object>, Decoder.Binary<Object> {
+        @Override
+        public ByteBuffer encode(Object message) {
+            if (message instanceof Request)
+                return encode((Request) message);
+            return encode((Reply) message);
+        }
+
+        private static ByteBuffer encode(Request request) {
+            var record = request.record.duplicate();
+            return ByteBuffer.allocate(REQUEST_HEADER_BYTES + record.remaining())
+                    .put(REQUEST)
+                    .putInt(request.id)
+                    .putInt(request.budgetMillis)
+                    .put(record)
+                    .flip();
+        }
+
+        private static ByteBuffer encode(Reply reply) {
+            if (reply.move != null) {
+                var move = reply.move;
+                boolean isDouble = move instanceof Move.DoubleMove;
+                return ByteBuffer.allocate(1 + 4 + 1 + 8 + 1)
+                        .put(REPLY)
+                        .putInt(reply.id)
+                        .put((byte) reply.status.ordinal())
+                        .putShort((short) move.source())
+                        .putShort(GameRecord.encodeHeader(move, 0, false, false))
+                        .putShort((short) (isDouble
+                                ? ((Move.DoubleMove) move).destination1
+                                : ((Move.SingleMove) move).destination))
+                        .putShort((short) (isDouble ? ((Move.DoubleMove) move).destination2 : 0))
+                        .put((byte) reply.depth)
+                        .flip();
+            }
+            byte[] message = reply.message.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(message.length, Short.MAX_VALUE);
+            return ByteBuffer.allocate(1 + 4 + 1 + 2 + length)
+                    .put(REPLY)
+                    .putInt(reply.id)
+                    .put((byte) reply.status.ordinal())
+                    .putShort((short) length)
+                    .put(message, 0, length)
+                    .flip();
+        }
+
+        @Override
+        public boolean willDecode(ByteBuffer bytes) {
+            return bytes.remaining() > 0 && (bytes.get(bytes.position()) == REQUEST
+                    || bytes.get(bytes.position()) == REPLY);
+        }
+
+        /**
+         * Only the frame is checked, a request's game is checked when it's replayed by {@link Request#position}
+         */
+        @Override
+        public Object decode(ByteBuffer bytes) throws DecodeException {
+            try {
+                byte type = bytes.get();
+                int id = bytes.getInt();
+                if (type == REQUEST) {
+                    int budgetMillis = bytes.getInt();
+                    //the container may reuse its buffer once we return
+                    var record = ByteBuffer.allocate(bytes.remaining()).put(bytes).flip();
+                    return new Request(id, budgetMillis, record);
+                }
+                var status = Reply.Status.values()[bytes.get()];
+                if (status == Reply.Status.OK) {
+                    int source = Short.toUnsignedInt(bytes.getShort());
+                    int header = Short.toUnsignedInt(bytes.getShort());
+                    int destination1 = Short.toUnsignedInt(bytes.getShort());
+                    int destination2 = Short.toUnsignedInt(bytes.getShort());
+                    return Reply.ok(id, GameRecord.decodeMove(Piece.MrX.MRX, header, source, destination1, destination2),
+                            bytes.get());
+                }
+                byte[] message = new byte[bytes.getShort()];
+                bytes.get(message);
+                return Reply.error(id, status, new String(message, StandardCharsets.UTF_8));
+            } catch (RuntimeException e) {
+                throw new DecodeException(bytes, "Malformed engine message", e);
+            }
+        }
+
+        @Override
+        public void init(EndpointConfig config) {}
+
+        @Override
+        public void destroy() {}
+    }
+}
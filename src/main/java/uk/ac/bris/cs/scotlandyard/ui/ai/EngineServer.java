@@ -0,0 +1,146 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.glassfish.tyrus.spi.ServerContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.wskit.RemoteEndpoint;
+import uk.ac.bris.cs.wskit.WebSocketListener;
+import uk.ac.bris.cs.wskit.WebSockets;
+
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves {@link MrXAi} over websockets, so engines can be run away from the games
+ * A client keeps one connection open and pipelines {@link EngineProtocol.Request}s on it without waiting for
+ * replies; every request is searched on {@link SearchHost#shared} and answered as soon as its search completes
+ * At most maxInFlight requests of a connection are searched at once, the others are answered
+ * {@link EngineProtocol.Reply.Status#BUSY} straight away, so one client can't queue unbounded work
+ * Searches of a connection that closes are stopped
+ */
+public final class EngineServer {
+    private static final Logger logger = LoggerFactory.getLogger(EngineServer.class);
+    public static final String PATH = "/engine";
+    public static final int DEFAULT_PORT = 8025;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    /** budget of requests asking for none, and the most a request may ask for */
+    static final int MAX_BUDGET_MILLIS = 60000;
+
+    private final MrXAi ai = new MrXAi();
+    private final int maxInFlight;
+    private ServerContainer container;
+
+    /**
+     * @param maxInFlight requests of a connection searched at once
+     */
+    public EngineServer(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Start listening on every interface, the endpoint is ws://host:port/engine
+     * @param port port to bind
+     * @throws IOException if the server couldn't be started
+     */
+    public synchronized void start(int port) throws IOException {
+        var config = WebSockets.createServerConfig(PATH, EngineProtocol.Codec.class, EngineProtocol.Codec.class,
+                Connection::new);
+        try {
+            //the first argument is the context path, not a host
+            container = WebSockets.startServer("/", port, config);
+        } catch (DeploymentException e) {
+            throw new IOException("Can't start engine server on port " + port, e);
+        }
+        logger.info("Engine server listening on port {} at {}, {} requests in flight per connection",
+                port, PATH, maxInFlight);
+    }
+
+    public synchronized void stop() {
+        if (container != null)
+            container.stop();
+        container = null;
+    }
+
+    /**
+     * Requests and searches of one connection
+     */
+    private final class Connection implements WebSocketListener<Object, Object> {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Map<Integer, Utils> searches = new ConcurrentHashMap<>();
+
+        @Override
+        public void onMessage(Object message, RemoteEndpoint<Object> remote) {
+            if (!(message instanceof EngineProtocol.Request)) {
+                remote.close("Expected a request");
+                return;
+            }
+            var request = (EngineProtocol.Request) message;
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                send(remote, EngineProtocol.Reply.error(request.id, EngineProtocol.Reply.Status.BUSY,
+                        maxInFlight + " requests in flight"));
+                return;
+            }
+            long start = System.nanoTime();
+            Board.GameState state;
+            try {
+                state = request.position();
+                if (!state.getWinner().isEmpty())
+                    throw new IllegalArgumentException("Game is over");
+                if (!state.getAvailableMoves().iterator().next().commencedBy().isMrX())
+                    throw new IllegalArgumentException("MrX isn't to move");
+            } catch (RuntimeException e) {
+                inFlight.decrementAndGet();
+                send(remote, EngineProtocol.Reply.error(request.id, EngineProtocol.Reply.Status.ERROR,
+                        String.valueOf(e.getMessage())));
+                return;
+            }
+            int budget = request.budgetMillis > 0 ? Math.min(request.budgetMillis, MAX_BUDGET_MILLIS)
+                    : MAX_BUDGET_MILLIS;
+            var search = ai.newSearch(state);
+            searches.put(request.id, search);
+            ai.search(search, start, budget, budget).whenComplete((best, failure) -> {
+                searches.remove(request.id, search);
+                inFlight.decrementAndGet();
+                if (best != null)
+                    send(remote, EngineProtocol.Reply.ok(request.id, best.move, best.depth));
+            });
+        }
+
+        @Override
+        public void onClosed(CloseReason.CloseCodes code, String reason) {
+            searches.values().forEach(Utils::stop);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            logger.warn("Engine connection failed", throwable);
+        }
+
+        /**
+         * The container doesn't allow overlapping sends on one connection, searches finish on several threads
+         */
+        private synchronized void send(RemoteEndpoint<Object> remote, EngineProtocol.Reply reply) {
+            if (remote.isOpen())
+                remote.send(reply);
+        }
+    }
+
+    /**
+     * Arguments: [port [max in flight]]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_IN_FLIGHT;
+        var server = new EngineServer(maxInFlight);
+        server.ai.warmUp();
+        server.start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,143 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Coefficients of the evaluation function
+ * Evaluation(state) = sum(weight[i] * feature[i]) over the features below
+ * Weights are stored as plain text, one "name value" pair per line, see {@link #load} and {@link #save}
+ */
+public final class EvaluationWeights {
+    private static final Logger logger = LoggerFactory.getLogger(EvaluationWeights.class);
+
+    /** System property holding the path of a weight file to use instead of {@link #DEFAULT} */
+    public static final String PROPERTY = "scotlandyard.ai.weights";
+
+    public static final int MIN_DISTANCE = 0;
+    public static final int SUM_DISTANCE = 1;
+    public static final int SECRET_TICKETS = 2;
+    public static final int POSSIBLE_LOCATIONS = 3;
+    public static final int FEATURE_COUNT = 4;
+
+    private static final String[] names = {"minDistance", "sumDistance", "secretTickets", "possibleLocations"};
+
+    /** the hand-picked coefficients: min + sum / 100 + #secret / 10 + #possibleLocations / 100 */
+    public static final EvaluationWeights DEFAULT = new EvaluationWeights(new double[]{1, 0.01, 0.1, 0.01});
+
+    private final double[] weights;
+
+    /**
+     * @param weights one weight per feature, indexed by the feature constants
+     */
+    public EvaluationWeights(double[] weights) {
+        if (weights.length != FEATURE_COUNT)
+            throw new IllegalArgumentException("Expected " + FEATURE_COUNT + " weights, got " + weights.length);
+        this.weights = weights.clone();
+    }
+
+    /**
+     * @param feature feature constant
+     * @return weight of the feature
+     */
+    public double get(int feature) {
+        return weights[feature];
+    }
+
+    /**
+     * @return copy of the weights
+     */
+    public double[] toArray() {
+        return weights.clone();
+    }
+
+    /**
+     * Weighted sum of the features
+     * @param minDistance min(distance(MrX, detective))
+     * @param sumDistance sum(distance(MrX, detective))
+     * @param secretTickets #MrXSecretTickets
+     * @param possibleLocations possible locations of MrX
+     * @return value
+     */
+    public double score(double minDistance, double sumDistance, double secretTickets, double possibleLocations) {
+        return weights[MIN_DISTANCE] * minDistance
+                + weights[SUM_DISTANCE] * sumDistance
+                + weights[SECRET_TICKETS] * secretTickets
+                + weights[POSSIBLE_LOCATIONS] * possibleLocations;
+    }
+
+    /**
+     * Read weights written by {@link #save}, features missing from the file keep their default weight
+     * @param path file
+     * @return weights
+     * @throws IOException if the file can't be read or has unknown entries
+     */
+    public static EvaluationWeights load(Path path) throws IOException {
+        double[] weights = DEFAULT.toArray();
+        for (String line : Files.readAllLines(path)) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] parts = line.split("\\s+");
+            int feature = Arrays.asList(names).indexOf(parts[0]);
+            if (parts.length != 2 || feature < 0)
+                throw new IOException("Malformed weight entry in " + path + ": " + line);
+            try {
+                weights[feature] = Double.parseDouble(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed weight entry in " + path + ": " + line, e);
+            }
+        }
+        return new EvaluationWeights(weights);
+    }
+
+    /**
+     * Write the weights as text
+     * @param path file
+     * @param comment written as a leading comment line, may be null
+     * @throws IOException if the file can't be written
+     */
+    public void save(Path path, String comment) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (comment != null)
+            lines.add("# " + comment);
+        for (int i = 0; i < FEATURE_COUNT; i++)
+            lines.add(names[i] + " " + String.format(Locale.ROOT, "%.9g", weights[i]));
+        Files.write(path, lines);
+    }
+
+    /**
+     * Weights from the file named by the {@link #PROPERTY} system property, {@link #DEFAULT} if unset or unreadable
+     * @return weights
+     */
+    public static EvaluationWeights fromProperty() {
+        String path = System.getProperty(PROPERTY);
+        if (path == null)
+            return DEFAULT;
+        try {
+            var weights = load(Paths.get(path));
+            logger.info("Loaded evaluation weights {} from {}", weights, path);
+            return weights;
+        } catch (IOException e) {
+            logger.warn("Could not load evaluation weights from {}, using defaults", path, e);
+            return DEFAULT;
+        }
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("{");
+        for (int i = 0; i < FEATURE_COUNT; i++)
+            builder.append(i == 0 ? "" : ", ").append(names[i]).append('=').append(weights[i]);
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+
+import java.util.List;
+
+/**
+ * Static evaluation used at the leaves of {@link Utils}' search, from MrX's point of view
+ * The search calls {@link #evaluateChildren} on its frontier, so that implementations can share
+ * the work common to all the children of a node instead of evaluating them one by one
+ */
+public interface Evaluator {
+    /** value of a position MrX has won */
+    double WIN = Double.POSITIVE_INFINITY;
+    /** value of a position MrX has lost */
+    double LOSS = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Evaluate one position
+     * @param state position
+     * @param mrXLocation where MrX really is, the board itself hides it
+     * @return value, higher is better for MrX
+     */
+    double evaluate(Board state, int mrXLocation);
+
+    /**
+     * Evaluate every child of a frontier node
+     * The default implementation advances the parent with each move and calls {@link #evaluate}
+     * @param parent node whose children are evaluated
+     * @param mrXLocation where MrX is in the parent
+     * @param moves moves leading to the children
+     * @param scores output, scores[i] is the value of the child reached with moves.get(i)
+     */
+    default void evaluateChildren(Board.GameState parent, int mrXLocation, List<Move> moves, double[] scores) {
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i);
+            scores[i] = evaluate(parent.advance(move),
+                    move.commencedBy().isMrX() ? finalDestination(move) : mrXLocation);
+        }
+    }
+
+    /**
+     * Start following a search from its root, so that positions along the searched path can be evaluated
+     * from state kept up to date by {@link #make} and {@link #unmake} instead of being read from the board;
+     * called at the start of every iteration, it drops whatever an earlier search left made
+     * The default implementation, and the ones of evaluators that don't keep such state, do nothing
+     * @param root root of the search
+     * @param mrXLocation where MrX is in the root
+     */
+    default void enter(Board.GameState root, int mrXLocation) {}
+
+    /**
+     * The search moves down to the position after the move, played from the last position entered or made
+     * @param move move
+     */
+    default void make(Move move) {}
+
+    /**
+     * The search moves back up to the position before the last move made
+     */
+    default void unmake() {}
+
+    /**
+     * Value of a finished game
+     * @param state position with a winner
+     * @return {@link #WIN} or {@link #LOSS}
+     */
+    static double terminal(Board state) {
+        return state.getWinner().contains(Piece.MrX.MRX) ? WIN : LOSS;
+    }
+
+    /**
+     * @param move move
+     * @return where the piece ends up
+     */
+    static int finalDestination(Move move) {
+        if (move instanceof Move.DoubleMove)
+            return ((Move.DoubleMove) move).destination2;
+        return ((Move.SingleMove) move).destination;
+    }
+}
@@ -0,0 +1,114 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+/**
+ * Compact binary format for recorded games, written by {@link GameRecordWriter} and read by {@link GameRecordReader}
+ * All values are big-endian, node ids are stored as unsigned shorts
+ * <pre>
+ * file    = int MAGIC, short VERSION, record*
+ * record  = int length (bytes following this field),
+ *           short mapId, byte winner, byte playerCount, player[playerCount] (MrX first),
+ *           short moveCount, move[moveCount]
+ * player  = byte piece index in {@link ScotlandYard#ALL_PIECES},
+ *           byte tickets[TICKET_KINDS] (starting count of each {@link ScotlandYard.Ticket}, in declaration order),
+ *           short startLocation
+ * move    = short header, short destination1, [short destination2 if double]
+ * header  = bits 0-2 index of the player in the record,
+ *           bits 3-5 ticket1, bits 6-8 ticket2, bit 9 double move,
+ *           bit 10 first leg revealed, bit 11 second leg revealed
+ * </pre>
+ * Version 1 had no pieces nor tickets, only start locations, and isn't read anymore
+ */
+public final class GameRecord {
+    public static final int MAGIC = 0x53594752; // "SYGR"
+    public static final short VERSION = 2;
+    public static final int FILE_HEADER_BYTES = 6;
+
+    /** map id of {@link ScotlandYard#standardGraph()} */
+    public static final short STANDARD_MAP = 0;
+
+    /** most players a record holds */
+    public static final int MAX_PLAYERS = 8;
+    static final int TICKET_KINDS = 5;
+    static final int PLAYER_BYTES = 1 + TICKET_KINDS + 2;
+
+    static final int PLAYER_MASK = 0b111;
+    static final int TICKET1_SHIFT = 3;
+    static final int TICKET2_SHIFT = 6;
+    static final int TICKET_MASK = 0b111;
+    static final int DOUBLE_BIT = 1 << 9;
+    static final int REVEAL1_BIT = 1 << 10;
+    static final int REVEAL2_BIT = 1 << 11;
+
+    private static final ScotlandYard.Ticket[] tickets = ScotlandYard.Ticket.values();
+
+    /**
+     * Outcome of a recorded game
+     */
+    public enum Winner {
+        NONE, MRX, DETECTIVES
+    }
+
+    private GameRecord() {}
+
+    /**
+     * @param piece piece
+     * @return index of the piece in {@link ScotlandYard#ALL_PIECES}
+     */
+    static int pieceIndex(Piece piece) {
+        return ScotlandYard.ALL_PIECES.indexOf(piece);
+    }
+
+    static Piece piece(int index) {
+        return ScotlandYard.ALL_PIECES.get(index);
+    }
+
+    static ScotlandYard.Ticket ticket(int ordinal) {
+        return tickets[ordinal];
+    }
+
+    /**
+     * Encode the header of a move
+     * @param move move
+     * @param player index of the player making the move in the record
+     * @param reveal1 whether the first (or only) leg happened in a reveal round
+     * @param reveal2 whether the second leg of a double move happened in a reveal round
+     * @return header
+     */
+    static short encodeHeader(Move move, int player, boolean reveal1, boolean reveal2) {
+        int header = player;
+        if (move instanceof Move.DoubleMove) {
+            var dm = (Move.DoubleMove) move;
+            header |= dm.ticket1.ordinal() << TICKET1_SHIFT
+                    | dm.ticket2.ordinal() << TICKET2_SHIFT
+                    | DOUBLE_BIT;
+            if (reveal2)
+                header |= REVEAL2_BIT;
+        } else {
+            header |= ((Move.SingleMove) move).ticket.ordinal() << TICKET1_SHIFT;
+        }
+        if (reveal1)
+            header |= REVEAL1_BIT;
+        return (short) header;
+    }
+
+    /**
+     * Decode a move, allocates
+     * @param piece piece of the player making the move
+     * @param header header as written by {@link #encodeHeader}
+     * @param source location of the piece before the move
+     * @param destination1 destination of the move or of its first leg
+     * @param destination2 destination of the second leg of a double move, ignored otherwise
+     * @return move
+     */
+    static Move decodeMove(Piece piece, int header, int source, int destination1, int destination2) {
+        var ticket1 = ticket(header >>> TICKET1_SHIFT & TICKET_MASK);
+        if ((header & DOUBLE_BIT) != 0)
+            return new Move.DoubleMove(piece, source, ticket1, destination1,
+                    ticket(header >>> TICKET2_SHIFT & TICKET_MASK), destination2);
+        return new Move.SingleMove(piece, source, ticket1, destination1);
+    }
+}
@@ -0,0 +1,315 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Memory-mapped reader of {@link GameRecord} files
+ * The reader is a cursor: {@link #nextRecord} moves to the next game and {@link #nextMove} to the next move of it,
+ * the accessors then decode fields straight from the mapped file, so scanning allocates nothing
+ * A reader is not thread-safe, use {@link #duplicate} to scan the same file from several threads
+ * Files are limited to 2 GB
+ */
+public final class GameRecordReader implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer data;
+    private final int start;        // offset of the first record
+
+    private int record = -1;        // offset of the current record's length field
+    private int recordEnd;
+    private int playerCount;
+    private int moveCount;
+    private int movesStart;
+    private int moveIndex;
+    private int moveOffset;
+    private int nextMoveOffset;
+    private int header;
+
+    private GameRecordReader(FileChannel channel, ByteBuffer data, int start) {
+        this.channel = channel;
+        this.data = data;
+        this.start = start;
+        this.recordEnd = start;
+    }
+
+    /**
+     * Map the given file
+     * @param path file
+     * @return reader positioned before the first record
+     * @throws IOException if the file can't be mapped or isn't a game record file
+     */
+    public static GameRecordReader open(Path path) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(path + " is larger than 2 GB");
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.remaining() < GameRecord.FILE_HEADER_BYTES
+                    || data.getInt(0) != GameRecord.MAGIC
+                    || data.getShort(4) != GameRecord.VERSION)
+                throw new IOException(path + " is not a game record file");
+            return new GameRecordReader(channel, data, GameRecord.FILE_HEADER_BYTES);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read records held in memory rather than in a file, e.g. received from the network
+     * The accessors don't check bounds against the record's length, malformed data fails with
+     * {@link IndexOutOfBoundsException} or an invalid move when replayed
+     * @param records buffer whose remaining bytes are whole records, without the file header
+     * @return reader positioned before the first record
+     */
+    public static GameRecordReader wrap(ByteBuffer records) {
+        return new GameRecordReader(null, records.slice(), 0);
+    }
+
+    /**
+     * @return an independent cursor over the same mapping, positioned before the first record
+     */
+    public GameRecordReader duplicate() {
+        return new GameRecordReader(null, data.duplicate(), start);
+    }
+
+    /**
+     * Position the cursor before the first record
+     */
+    public void rewind() {
+        seek(start);
+    }
+
+    /**
+     * @return size of the mapped file in bytes
+     */
+    public int size() {
+        return data.limit();
+    }
+
+    /**
+     * @return offset of the current record, to be passed to {@link #seek}
+     */
+    public int position() {
+        return record;
+    }
+
+    /**
+     * Position the cursor so that the next call to {@link #nextRecord} reads the record at the given offset
+     * @param offset offset returned by {@link #position}
+     */
+    public void seek(int offset) {
+        this.record = -1;
+        this.recordEnd = offset;
+    }
+
+    /**
+     * Move to the next record
+     * @return false if there are no more records
+     */
+    public boolean nextRecord() {
+        if (recordEnd + 4 > data.limit())
+            return false;
+        record = recordEnd;
+        recordEnd = record + 4 + data.getInt(record);
+        playerCount = data.get(record + 7);
+        movesStart = record + 8 + GameRecord.PLAYER_BYTES * playerCount + 2;
+        moveCount = Short.toUnsignedInt(data.getShort(movesStart - 2));
+        rewindMoves();
+        return true;
+    }
+
+    public int mapId() {
+        return data.getShort(record + 4);
+    }
+
+    public GameRecord.Winner winner() {
+        return GameRecord.Winner.values()[data.get(record + 6)];
+    }
+
+    /**
+     * @return number of players, MrX included
+     */
+    public int playerCount() {
+        return playerCount;
+    }
+
+    /**
+     * @param player 0 for MrX, 1.. for the detectives
+     * @return piece of the player
+     */
+    public Piece piece(int player) {
+        return GameRecord.piece(data.get(record + 8 + GameRecord.PLAYER_BYTES * player));
+    }
+
+    /**
+     * @param player 0 for MrX, 1.. for the detectives
+     * @param ticket ticket
+     * @return tickets of that kind the player started with
+     */
+    public int ticketCount(int player, ScotlandYard.Ticket ticket) {
+        return Byte.toUnsignedInt(data.get(record + 8 + GameRecord.PLAYER_BYTES * player + 1 + ticket.ordinal()));
+    }
+
+    /**
+     * @param player 0 for MrX, 1.. for the detectives
+     * @return start location
+     */
+    public int startLocation(int player) {
+        return Short.toUnsignedInt(data.getShort(record + 8 + GameRecord.PLAYER_BYTES * player
+                + 1 + GameRecord.TICKET_KINDS));
+    }
+
+    /**
+     * Player as it started the game, allocates
+     * @param player 0 for MrX, 1.. for the detectives
+     * @return player
+     */
+    public Player player(int player) {
+        var tickets = ImmutableMap.<ScotlandYard.Ticket, Integer>builder();
+        for (int t = 0; t < GameRecord.TICKET_KINDS; t++)
+            tickets.put(GameRecord.ticket(t), ticketCount(player, GameRecord.ticket(t)));
+        return new Player(piece(player), tickets.build(), startLocation(player));
+    }
+
+    public int moveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Restart move iteration of the current record
+     */
+    public void rewindMoves() {
+        moveIndex = -1;
+        nextMoveOffset = movesStart;
+    }
+
+    /**
+     * Move to the next move of the current record
+     * @return false if there are no more moves
+     */
+    public boolean nextMove() {
+        if (moveIndex + 1 >= moveCount)
+            return false;
+        moveIndex++;
+        moveOffset = nextMoveOffset;
+        header = Short.toUnsignedInt(data.getShort(moveOffset));
+        nextMoveOffset = moveOffset + (isDouble() ? 6 : 4);
+        return true;
+    }
+
+    /**
+     * @return index of the current move in the game
+     */
+    public int moveIndex() {
+        return moveIndex;
+    }
+
+    /**
+     * @return index of the player making the current move, 0 is MrX
+     */
+    public int player() {
+        return header & GameRecord.PLAYER_MASK;
+    }
+
+    public boolean isMrX() {
+        return player() == 0;
+    }
+
+    public boolean isDouble() {
+        return (header & GameRecord.DOUBLE_BIT) != 0;
+    }
+
+    public ScotlandYard.Ticket ticket1() {
+        return GameRecord.ticket(header >>> GameRecord.TICKET1_SHIFT & GameRecord.TICKET_MASK);
+    }
+
+    /**
+     * @return second ticket of a double move
+     */
+    public ScotlandYard.Ticket ticket2() {
+        return GameRecord.ticket(header >>> GameRecord.TICKET2_SHIFT & GameRecord.TICKET_MASK);
+    }
+
+    public int destination1() {
+        return Short.toUnsignedInt(data.getShort(moveOffset + 2));
+    }
+
+    /**
+     * @return second destination of a double move
+     */
+    public int destination2() {
+        return Short.toUnsignedInt(data.getShort(moveOffset + 4));
+    }
+
+    /**
+     * @return where the piece ends up after the move
+     */
+    public int destination() {
+        return isDouble() ? destination2() : destination1();
+    }
+
+    public boolean revealed1() {
+        return (header & GameRecord.REVEAL1_BIT) != 0;
+    }
+
+    public boolean revealed2() {
+        return (header & GameRecord.REVEAL2_BIT) != 0;
+    }
+
+    /**
+     * Decode the current move into a model move, allocates
+     * @param source location of the piece before the move
+     * @return move
+     */
+    public Move toMove(int source) {
+        return GameRecord.decodeMove(piece(player()), header, source, destination1(), isDouble() ? destination2() : 0);
+    }
+
+    /**
+     * Rebuild the game state of the current record, with the players it records
+     * @param setup setup the game was played with
+     * @param moves number of moves to replay
+     * @return state after the last replayed move
+     */
+    public Board.GameState replay(GameSetup setup, int moves) {
+        var detectives = new ArrayList<Player>();
+        for (int i = 1; i < playerCount; i++)
+            detectives.add(player(i));
+        Board.GameState state = MyGameStateFactory.a(setup, player(0), ImmutableList.copyOf(detectives));
+
+        int[] locations = new int[playerCount];
+        for (int i = 0; i < playerCount; i++)
+            locations[i] = startLocation(i);
+        rewindMoves();
+        while (moveIndex + 1 < moves && nextMove()) {
+            state = state.advance(toMove(locations[player()]));
+            locations[player()] = destination();
+        }
+        return state;
+    }
+
+    /**
+     * Rebuild the final game state of the current record
+     * @param setup setup the game was played with
+     * @return state
+     */
+    public Board.GameState replay(GameSetup setup) {
+        return replay(setup, moveCount);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+}
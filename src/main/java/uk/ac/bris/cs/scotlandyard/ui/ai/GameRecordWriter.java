@@ -0,0 +1,214 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.Player;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Append-only writer of {@link GameRecord} files
+ * Records are buffered and only written to the file in large blocks, call {@link #close} to flush
+ */
+public final class GameRecordWriter implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private long recordCount;
+
+    /**
+     * Open the file for appending, creating it (and writing the file header) if needed
+     * @param path file
+     * @throws IOException if the file can't be opened or isn't a game record file
+     */
+    public GameRecordWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        if (channel.size() == 0) {
+            buffer.putInt(GameRecord.MAGIC).putShort(GameRecord.VERSION);
+        } else {
+            var header = ByteBuffer.allocate(GameRecord.FILE_HEADER_BYTES);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < GameRecord.FILE_HEADER_BYTES
+                    || header.getInt() != GameRecord.MAGIC
+                    || header.getShort() != GameRecord.VERSION) {
+                channel.close();
+                throw new IOException(path + " is not a game record file");
+            }
+        }
+        channel.position(channel.size());
+    }
+
+    /**
+     * Append one game
+     * @param mapId id of the map the game was played on
+     * @param rounds reveal rounds of the game setup, used to record which MrX moves were revealed
+     * @param players players at the start of the game, MrX first, at most {@link GameRecord#MAX_PLAYERS}
+     * @param moves every move of the game, in order
+     * @param winner outcome
+     * @throws IOException if the record can't be written
+     * @throws IllegalArgumentException if the players can't be recorded or a move isn't made by one of them
+     */
+    public void append(int mapId,
+                       ImmutableList<Boolean> rounds,
+                       List<Player> players,
+                       List<Move> moves,
+                       GameRecord.Winner winner) throws IOException {
+        int length = recordBytes(players.size(), moves);
+        if (buffer.remaining() < length)
+            flush();
+        if (buffer.remaining() < length)
+            throw new IOException("Game record of " + length + " bytes is too large");
+        put(buffer, mapId, rounds, players, moves, winner);
+        recordCount++;
+    }
+
+    /**
+     * Append one game played by MrX and the first detectives of {@link ScotlandYard#ALL_PIECES},
+     * all with default tickets
+     * @param startLocations MrX's start location followed by the detectives' ones
+     * @see #append(int, ImmutableList, List, List, GameRecord.Winner)
+     */
+    public void append(int mapId,
+                       ImmutableList<Boolean> rounds,
+                       int[] startLocations,
+                       List<Move> moves,
+                       GameRecord.Winner winner) throws IOException {
+        append(mapId, rounds, defaultPlayers(startLocations), moves, winner);
+    }
+
+    /**
+     * @param startLocations MrX's start location followed by the detectives' ones
+     * @return MrX and the first detectives of {@link ScotlandYard#ALL_PIECES} with default tickets
+     */
+    public static ImmutableList<Player> defaultPlayers(int[] startLocations) {
+        var players = ImmutableList.<Player>builder()
+                .add(new Player(Piece.MrX.MRX, ScotlandYard.defaultMrXTickets(), startLocations[0]));
+        for (int i = 1; i < startLocations.length; i++)
+            players.add(new Player(GameRecord.piece(i), ScotlandYard.defaultDetectiveTickets(), startLocations[i]));
+        return players.build();
+    }
+
+    /**
+     * @param players number of players, MrX included
+     * @param moves moves of the game
+     * @return size of the record, its length field included
+     */
+    public static int recordBytes(int players, List<Move> moves) {
+        int length = 4 + 2 + 1 + 1 + GameRecord.PLAYER_BYTES * players + 2;
+        for (Move move : moves)
+            length += move instanceof Move.DoubleMove ? 6 : 4;
+        return length;
+    }
+
+    /**
+     * Write one record at the buffer's position, see {@link #append}
+     * @param buffer output with at least {@link #recordBytes} bytes remaining
+     * @throws IllegalArgumentException if the players can't be recorded or a move isn't made by one of them,
+     * the buffer is left as it was
+     */
+    public static void put(ByteBuffer buffer,
+                           int mapId,
+                           ImmutableList<Boolean> rounds,
+                           List<Player> players,
+                           List<Move> moves,
+                           GameRecord.Winner winner) {
+        if (players.isEmpty() || players.size() > GameRecord.MAX_PLAYERS || !players.get(0).isMrX())
+            throw new IllegalArgumentException("Expected MrX and at most " + (GameRecord.MAX_PLAYERS - 1)
+                    + " detectives, got " + players);
+        int[] slots = new int[ScotlandYard.ALL_PIECES.size()];
+        for (int i = 0; i < players.size(); i++) {
+            for (int count : players.get(i).tickets().values())
+                if (count > 255)
+                    throw new IllegalArgumentException("Too many tickets: " + players.get(i));
+            slots[GameRecord.pieceIndex(players.get(i).piece())] = i + 1;
+        }
+        for (Move move : moves)
+            if (slots[GameRecord.pieceIndex(move.commencedBy())] == 0)
+                throw new IllegalArgumentException("Move by a piece that isn't playing: " + move);
+
+        buffer.putInt(recordBytes(players.size(), moves) - 4)
+                .putShort((short) mapId)
+                .put((byte) winner.ordinal())
+                .put((byte) players.size());
+        for (Player player : players) {
+            buffer.put((byte) GameRecord.pieceIndex(player.piece()));
+            for (int t = 0; t < GameRecord.TICKET_KINDS; t++)
+                buffer.put((byte) player.tickets().getOrDefault(GameRecord.ticket(t), 0).intValue());
+            buffer.putShort((short) player.location());
+        }
+        buffer.putShort((short) moves.size());
+
+        int round = 0;
+        for (Move move : moves) {
+            boolean mrX = move.commencedBy().isMrX();
+            int player = slots[GameRecord.pieceIndex(move.commencedBy())] - 1;
+            if (move instanceof Move.DoubleMove) {
+                var dm = (Move.DoubleMove) move;
+                buffer.putShort(GameRecord.encodeHeader(move, player,
+                                mrX && isReveal(rounds, round), mrX && isReveal(rounds, round + 1)))
+                        .putShort((short) dm.destination1)
+                        .putShort((short) dm.destination2);
+            } else {
+                buffer.putShort(GameRecord.encodeHeader(move, player, mrX && isReveal(rounds, round), false))
+                        .putShort((short) ((Move.SingleMove) move).destination);
+            }
+            if (mrX)
+                round += move instanceof Move.DoubleMove ? 2 : 1;
+        }
+    }
+
+    /**
+     * Write one record of a game played with {@link #defaultPlayers}, see {@link #put(ByteBuffer, int,
+     * ImmutableList, List, List, GameRecord.Winner)}
+     */
+    public static void put(ByteBuffer buffer,
+                           int mapId,
+                           ImmutableList<Boolean> rounds,
+                           int[] startLocations,
+                           List<Move> moves,
+                           GameRecord.Winner winner) {
+        put(buffer, mapId, rounds, defaultPlayers(startLocations), moves, winner);
+    }
+
+    private static boolean isReveal(ImmutableList<Boolean> rounds, int round) {
+        return round < rounds.size() && rounds.get(round);
+    }
+
+    /**
+     * @return records appended through this writer
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Write buffered records to the file
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of latencies in microseconds
+ * Values below 32 get their own bucket, larger ones share 16 buckets per power of two,
+ * so quantiles are within ~6% of the recorded values at any scale up to hours
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR = 32;
+    private static final int SUB_BUCKETS = 16;
+    private static final int BUCKETS = LINEAR + 60 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param micros latency, negative values count as 0
+     */
+    public void record(long micros) {
+        micros = Math.max(0, micros);
+        counts.incrementAndGet(bucket(micros));
+        total.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return upper bound of the bucket holding the quantile, 0 if nothing was recorded
+     */
+    public long quantile(double quantile) {
+        long count = count();
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(upperBound(i), max());
+        }
+        return max();
+    }
+
+    private static int bucket(long value) {
+        if (value < LINEAR)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < LINEAR)
+            return bucket;
+        int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+        long top = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,462 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.LogEntry;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * Coarse view of a map: its nodes clustered into connected regions around transport hubs, underground stations
+ * first and then the busiest bus stops, each node going to the hub it's fewest taxi and bus hops from
+ * The regions and their adjacency make a small graph on which whole games can be played out quickly,
+ * see {@link #plan}, so that a deep look at where MrX should head can steer a shallow concrete search
+ * Get instances through {@link #of} so that they are built only once per map
+ */
+public final class MapAbstraction {
+    private static final Map<MapTables, MapAbstraction> cache = new ConcurrentHashMap<>();
+    /** fewest taxi and bus hops between two hubs */
+    private static final int HUB_SEPARATION = 2;
+    /** nodes per region aimed for, fewer hubs are picked if they'd be too close */
+    private static final int REGION_NODES = 6;
+    /** links regions are grown along, so that an underground line doesn't make a region of far apart stations */
+    private static final List<ScotlandYard.Transport> SURFACE =
+            List.of(ScotlandYard.Transport.TAXI, ScotlandYard.Transport.BUS);
+    /** value of a played out game in which a detective reaches MrX's region, before the rounds it took */
+    private static final double CAUGHT = -1000;
+    /** value of a played out game that MrX survives */
+    private static final double SURVIVED = 1000;
+    /** first steps valued within this much of the best one are kept as targets */
+    private static final double TARGET_MARGIN = 5;
+    /** playout steps between polls of whether the plan is cancelled */
+    private static final int POLL_STEPS = 1 << 10;
+
+    private final MapTables tables;
+    private final int[] regionOf;
+    private final int[] hubs;
+    private final int[] sizes;
+    private final int[][] adjacent;
+    /** [r][other]: region steps between r and the other region, each row made on first use */
+    private final AtomicReferenceArray<int[]> regionDistances;
+
+    private MapAbstraction(MapTables tables) {
+        this.tables = tables;
+        this.regionOf = new int[tables.size];
+        Arrays.fill(regionOf, -1);
+
+        List<Integer> hubList = chooseHubs(tables);
+        var queue = new ArrayDeque<Integer>();
+        for (int r = 0; r < hubList.size(); r++) {
+            regionOf[hubList.get(r)] = r;
+            queue.add(hubList.get(r));
+        }
+        grow(queue);
+        //nodes the hubs can't reach start regions of their own
+        for (Integer node : tables.graph.nodes()) {
+            if (regionOf[node] < 0) {
+                regionOf[node] = hubList.size();
+                hubList.add(node);
+                queue.add(node);
+                grow(queue);
+            }
+        }
+        this.hubs = hubList.stream().mapToInt(Integer::intValue).toArray();
+
+        int count = hubs.length;
+        this.sizes = new int[count];
+        var linked = new ArrayList<TreeSet<Integer>>(count);
+        for (int r = 0; r < count; r++)
+            linked.add(new TreeSet<>());
+        for (Integer node : tables.graph.nodes()) {
+            sizes[regionOf[node]]++;
+            for (int neighbour : tables.neighbours(node))
+                if (regionOf[neighbour] != regionOf[node])
+                    linked.get(regionOf[node]).add(regionOf[neighbour]);
+        }
+        this.adjacent = new int[count][];
+        for (int r = 0; r < count; r++)
+            adjacent[r] = linked.get(r).stream().mapToInt(Integer::intValue).toArray();
+        this.regionDistances = new AtomicReferenceArray<>(count);
+    }
+
+    /**
+     * Get the abstraction of the given tables' map, building it on first use
+     * @param tables tables of the map
+     * @return shared abstraction
+     */
+    public static MapAbstraction of(MapTables tables) {
+        return cache.computeIfAbsent(tables, MapAbstraction::new);
+    }
+
+    /**
+     * Pick a hub per {@link #REGION_NODES} nodes: underground stations, then nodes with the most bus and then
+     * overall links, skipping any that are closer than {@link #HUB_SEPARATION} taxi and bus hops to one already picked
+     */
+    private static List<Integer> chooseHubs(MapTables tables) {
+        int wanted = Math.max(1, tables.nodeCount / REGION_NODES);
+        var candidates = new ArrayList<>(tables.graph.nodes());
+        candidates.sort(Comparator
+                .comparingInt((Integer node) -> tables.neighbours(node, ScotlandYard.Transport.UNDERGROUND).length > 0
+                        ? 0 : 1)
+                .thenComparingInt(node -> -tables.neighbours(node, ScotlandYard.Transport.BUS).length)
+                .thenComparingInt(node -> -tables.neighbours(node).length)
+                .thenComparingInt(node -> node));
+        List<Integer> hubs = new ArrayList<>();
+        long[] covered = tables.newNodeSet();
+        for (Integer node : candidates) {
+            if (hubs.size() == wanted)
+                break;
+            if ((covered[node >>> 6] & 1L << node) != 0)
+                continue;
+            hubs.add(node);
+            markSurface(tables, node, HUB_SEPARATION - 1, covered);
+        }
+        return hubs;
+    }
+
+    /**
+     * Add the nodes within the given number of taxi and bus hops of the source to the set
+     */
+    private static void markSurface(MapTables tables, int source, int hops, long[] set) {
+        var frontier = new ArrayList<Integer>(List.of(source));
+        set[source >>> 6] |= 1L << source;
+        for (int step = 0; step < hops; step++) {
+            var next = new ArrayList<Integer>();
+            for (int node : frontier)
+                for (ScotlandYard.Transport transport : SURFACE)
+                    for (int neighbour : tables.neighbours(node, transport))
+                        if ((set[neighbour >>> 6] & 1L << neighbour) == 0) {
+                            set[neighbour >>> 6] |= 1L << neighbour;
+                            next.add(neighbour);
+                        }
+            frontier = next;
+        }
+    }
+
+    /**
+     * Breadth first along taxi and bus links from the queued nodes, every node found joins the region of the node
+     * it was found from, so each region stays connected
+     */
+    private void grow(ArrayDeque<Integer> queue) {
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (ScotlandYard.Transport transport : SURFACE)
+                for (int neighbour : tables.neighbours(node, transport))
+                    if (regionOf[neighbour] < 0) {
+                        regionOf[neighbour] = regionOf[node];
+                        queue.add(neighbour);
+                    }
+        }
+    }
+
+    /**
+     * @return region steps between the source and every region, links go both ways so this is also to the source
+     */
+    private int[] regionDistancesFrom(int source) {
+        int[] row = regionDistances.get(source);
+        if (row != null)
+            return row;
+        int[] distances = new int[hubs.length];
+        Arrays.fill(distances, Integer.MAX_VALUE);
+        distances[source] = 0;
+        var queue = new ArrayDeque<Integer>(List.of(source));
+        while (!queue.isEmpty()) {
+            int region = queue.poll();
+            for (int next : adjacent[region])
+                if (distances[next] == Integer.MAX_VALUE) {
+                    distances[next] = distances[region] + 1;
+                    queue.add(next);
+                }
+        }
+        regionDistances.set(source, distances);
+        return distances;
+    }
+
+    public int regionCount() {
+        return hubs.length;
+    }
+
+    /**
+     * @param node node
+     * @return region of the node
+     */
+    public int regionOf(int node) {
+        return regionOf[node];
+    }
+
+    /**
+     * @param region region
+     * @return hub the region was grown from
+     */
+    public int hub(int region) {
+        return hubs[region];
+    }
+
+    /**
+     * @param region region
+     * @return number of nodes of the region
+     */
+    public int size(int region) {
+        return sizes[region];
+    }
+
+    /**
+     * @param region region
+     * @return regions with a link into the given one, sorted
+     */
+    public int[] adjacentRegions(int region) {
+        return adjacent[region];
+    }
+
+    /**
+     * @return region steps between two regions, Integer.MAX_VALUE if unreachable
+     */
+    public int regionDistance(int from, int to) {
+        return regionDistancesFrom(to)[from];
+    }
+
+    /**
+     * Play the rest of the game, up to the given number of MrX's rounds, on the regions to find where MrX should head
+     * Each round MrX stays or steps to an adjacent region, then every detective steps towards the region MrX was
+     * last revealed in, or stays if he hasn't been yet; a detective in his region catches him
+     * Tickets and double moves are ignored and the detectives play greedily, so the result is only a guide
+     * @param state position with MrX to move
+     * @param rounds MrX's rounds looked ahead, at least 1
+     * @return plan of the position
+     */
+    public Plan plan(Board state, int rounds) {
+        return plan(state, rounds, () -> false);
+    }
+
+    /**
+     * {@link #plan(Board, int)} that can be cut short: the playout deepens one round at a time and the plan of the
+     * deepest complete one is kept
+     * @param cancelled polled during the playout, it stops once it's true
+     * @return plan of the position, null if cancelled before a single round was played out
+     */
+    public Plan plan(Board state, int rounds, BooleanSupplier cancelled) {
+        int mrX = regionOf[state.getAvailableMoves().iterator().next().source()];
+        int[] detectives = Arrays.stream(Piece.Detective.values())
+                .map(state::getDetectiveLocation)
+                .filter(Optional::isPresent)
+                .mapToInt(location -> regionOf[location.get()])
+                .sorted()
+                .toArray();
+        var log = state.getMrXTravelLog();
+        int known = -1;
+        for (LogEntry entry : log)
+            if (entry.location().isPresent())
+                known = regionOf[entry.location().get()];
+        int depth = Math.min(rounds, state.getSetup().rounds.size() - log.size());
+
+        Plan plan = null;
+        int[] options = options(mrX);
+        double[] values = new double[options.length];
+        for (int played = 1; played <= depth; played++) {
+            var playout = new Playout(state.getSetup().rounds, log.size(), played, cancelled);
+            try {
+                for (int i = 0; i < options.length; i++)
+                    values[i] = playout.step(options[i], detectives, known, 1);
+            } catch (PlayoutCancelled e) {
+                return plan;
+            }
+            plan = plan(mrX, options, values);
+        }
+        return plan;
+    }
+
+    /**
+     * @return plan targeting the options valued close to the best one
+     */
+    private Plan plan(int mrX, int[] options, double[] values) {
+        double best = Arrays.stream(values).max().orElseThrow();
+        double threshold = best - TARGET_MARGIN;
+        int[] targets = IntStream.range(0, options.length)
+                .filter(i -> values[i] >= threshold)
+                .map(i -> options[i])
+                .toArray();
+        return new Plan(mrX, targets, best);
+    }
+
+    /**
+     * @return MrX's region followed by its adjacent ones
+     */
+    private int[] options(int region) {
+        int[] options = new int[adjacent[region].length + 1];
+        options[0] = region;
+        System.arraycopy(adjacent[region], 0, options, 1, adjacent[region].length);
+        return options;
+    }
+
+    /**
+     * Stay or adjacent region of the detective's that's closest to the target, the first such in region order
+     */
+    private int towards(int detective, int target) {
+        int[] distances = regionDistancesFrom(target);
+        int best = detective;
+        for (int next : adjacent[detective])
+            if (distances[next] < distances[best])
+                best = next;
+        return best;
+    }
+
+    /** thrown through a {@link Playout} once its plan is cancelled, preallocated since it's only a signal */
+    private static final class PlayoutCancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private static final PlayoutCancelled INSTANCE = new PlayoutCancelled();
+
+        private PlayoutCancelled() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Position of a {@link Playout}: MrX's rounds played in the line, MrX's region, the region he was last seen in
+     * and the detectives' sorted regions
+     */
+    private static final class Key {
+        private final int[] fields;
+        private final int hash;
+
+        Key(int[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(fields, ((Key) o).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * One playout of {@link #plan}, detectives are interchangeable so their regions are kept sorted,
+     * and positions reached along several lines are looked up rather than played again
+     */
+    private final class Playout {
+        private final List<Boolean> reveals;
+        private final int round;
+        private final int depth;
+        private final boolean endsGame;
+        private final BooleanSupplier cancelled;
+        private final Map<Key, Double> seen = new HashMap<>();
+        private int steps;
+
+        Playout(List<Boolean> reveals, int round, int depth, BooleanSupplier cancelled) {
+            this.reveals = reveals;
+            this.round = round;
+            this.depth = depth;
+            this.endsGame = depth == reveals.size() - round;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * MrX has moved to the given region: the detectives answer, then he plays on
+         * @param known region the detectives last saw MrX in, -1 if they haven't
+         * @param played MrX's rounds played so far in this line
+         * @return value for MrX
+         */
+        double step(int mrX, int[] detectives, int known, int played) {
+            if (++steps % POLL_STEPS == 0 && cancelled.getAsBoolean())
+                throw PlayoutCancelled.INSTANCE;
+            if (reveals.get(round + played - 1))
+                known = mrX;
+            int[] moved = new int[detectives.length];
+            for (int i = 0; i < detectives.length; i++) {
+                moved[i] = detectives[i] == mrX || known < 0 ? detectives[i] : towards(detectives[i], known);
+                if (detectives[i] == mrX || moved[i] == mrX)
+                    return CAUGHT + played;
+            }
+            if (played == depth)
+                return endsGame ? SURVIVED : leaf(mrX, moved);
+            Arrays.sort(moved);
+            int[] fields = new int[moved.length + 3];
+            fields[0] = played;
+            fields[1] = mrX;
+            fields[2] = known;
+            System.arraycopy(moved, 0, fields, 3, moved.length);
+            var key = new Key(fields);
+            var value = seen.get(key);
+            if (value != null)
+                return value;
+            double best = Double.NEGATIVE_INFINITY;
+            for (int next : options(mrX))
+                best = Math.max(best, step(next, moved, known, played + 1));
+            seen.put(key, best);
+            return best;
+        }
+    }
+
+    /**
+     * Value of MrX surviving the line without reaching the end of the game: mostly how many region steps the
+     * closest detective is away, then the others, then how big his region is to hide in
+     */
+    private double leaf(int mrX, int[] detectives) {
+        int[] distances = regionDistancesFrom(mrX);
+        int closest = Integer.MAX_VALUE;
+        double total = 0;
+        for (int detective : detectives) {
+            int distance = distances[detective];
+            closest = Math.min(closest, distance);
+            total += Math.min(distance, hubs.length);
+        }
+        if (detectives.length == 0)
+            closest = 0;
+        return 10 * Math.min(closest, hubs.length) + total + (double) sizes[mrX] * hubs.length / tables.nodeCount;
+    }
+
+    /**
+     * Regions MrX should head for, from {@link #plan}
+     */
+    public final class Plan {
+        /** MrX's region */
+        public final int from;
+        /** regions whose first steps were valued close to the best one, MrX's own if staying is among them */
+        public final int[] targets;
+        /** value of the best first step */
+        public final double value;
+
+        private Plan(int from, int[] targets, double value) {
+            this.from = from;
+            this.targets = targets;
+            this.value = value;
+        }
+
+        /**
+         * @param move MrX's move
+         * @return whether the move ends in a target region, or closer to the hub of one MrX isn't in
+         */
+        public boolean allows(Move move) {
+            int destination = Evaluator.finalDestination(move);
+            for (int target : targets) {
+                if (regionOf[destination] == target)
+                    return true;
+                if (target != from) {
+                    int[] distances = tables.distancesFrom(hubs[target]);
+                    if (distances[destination] < distances[move.source()])
+                        return true;
+                }
+            }
+            return false;
+        }
+    }
+}
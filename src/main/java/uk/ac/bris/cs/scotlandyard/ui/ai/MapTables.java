@@ -0,0 +1,275 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-map derived structures shared by every search on the same graph
+ * Holds adjacency arrays (per transport and combined) and hop distances between nodes
+ * Distance rows are computed lazily with BFS, which matches {@link PathFinder} on unweighted edges
+ * Every row is kept on maps small enough for the row budget, larger maps keep a direct-mapped subset of them
+ * MrX's belief sets on the map are memoized in {@link #beliefs}
+ * Nodes reachable in up to {@link #MAX_REACH_STEPS} steps with a set of transports are found lazily for each
+ * source asked about and kept as a short sorted list, so large maps only pay for the sources used, see {@link #reaches}
+ * Get instances through {@link #of} so that they are built only once per map
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class MapTables {
+    private static final Map<ImmutableValueGraph<Integer, ImmutableSet<ScotlandYard.Transport>>, MapTables>
+            cache = new ConcurrentHashMap<>();
+    private static final long ROW_BUDGET_BYTES = 256L << 20;
+    /** most steps {@link #reaches} can answer for */
+    public static final int MAX_REACH_STEPS = 3;
+
+    public final ImmutableValueGraph<Integer, ImmutableSet<ScotlandYard.Transport>> graph;
+    /** max node id + 1, so node ids can be used directly as indices */
+    public final int size;
+    /** number of nodes of the map, also the number of places MrX can be before his first reveal */
+    public final int nodeCount;
+    private final int[][] adjacency;
+    private final int[][][] transportAdjacency;
+    private final AtomicReferenceArray<int[]> distances;
+    private final int rowSlots;
+    /** per set of transports and source: reachable nodes, sorted, each as node << 2 | fewest steps */
+    private final AtomicReferenceArray<AtomicReferenceArray<int[]>> reach;
+    /** belief sets shared across searches and turns */
+    public final BeliefCache beliefs;
+
+    private MapTables(ImmutableValueGraph<Integer, ImmutableSet<ScotlandYard.Transport>> graph) {
+        this.graph = graph;
+        int max = 0;
+        for (Integer node : graph.nodes())
+            max = Math.max(max, node);
+        this.size = max + 1;
+        this.nodeCount = graph.nodes().size();
+        this.adjacency = new int[size][];
+        this.transportAdjacency = new int[ScotlandYard.Transport.values().length][size][];
+        this.rowSlots = (int) Math.max(1, Math.min(size, ROW_BUDGET_BYTES / (4L * (size + 1))));
+        this.distances = new AtomicReferenceArray<>(rowSlots);
+        this.reach = new AtomicReferenceArray<>(1 << ScotlandYard.Transport.values().length);
+
+        var empty = new int[0];
+        Arrays.fill(adjacency, empty);
+        for (int[][] table : transportAdjacency)
+            Arrays.fill(table, empty);
+        for (Integer node : graph.nodes()) {
+            adjacency[node] = graph.adjacentNodes(node).stream().mapToInt(Integer::intValue).sorted().toArray();
+            for (ScotlandYard.Transport t : ScotlandYard.Transport.values()) {
+                transportAdjacency[t.ordinal()][node] = Arrays.stream(adjacency[node])
+                        .filter(to -> graph.edgeValue(node, to).get().contains(t))
+                        .toArray();
+            }
+        }
+        this.beliefs = new BeliefCache(this);
+    }
+
+    /**
+     * Get the tables of the given graph, building them on first use
+     * @param graph map
+     * @return shared tables
+     */
+    public static MapTables of(ImmutableValueGraph<Integer, ImmutableSet<ScotlandYard.Transport>> graph) {
+        return cache.computeIfAbsent(graph, MapTables::new);
+    }
+
+    /**
+     * Compute every distance row now rather than on first use, does nothing if they don't all fit in the budget
+     * @return this
+     */
+    public MapTables precompute() {
+        if (rowSlots == size)
+            for (Integer node : graph.nodes())
+                distancesFrom(node);
+        return this;
+    }
+
+    /**
+     * @param node node
+     * @return neighbours of the node regardless of transport, sorted
+     */
+    public int[] neighbours(int node) {
+        return adjacency[node];
+    }
+
+    /**
+     * @param node node
+     * @param transport transport
+     * @return neighbours of the node reachable with the given transport, sorted
+     */
+    public int[] neighbours(int node, ScotlandYard.Transport transport) {
+        return transportAdjacency[transport.ordinal()][node];
+    }
+
+    /**
+     * Hop distance between two nodes, Integer.MAX_VALUE if unreachable
+     * @param from source
+     * @param to destination
+     * @return distance
+     */
+    public int distance(int from, int to) {
+        return distancesFrom(from)[to];
+    }
+
+    /**
+     * @param source source
+     * @return hop distances from the source to every node, indexed by node id, must not be modified
+     */
+    public int[] distancesFrom(int source) {
+        int slot = source % rowSlots;
+        int[] row = distances.get(slot);
+        if (row == null || row[size] != source) {
+            row = computeRow(source);
+            distances.set(slot, row);
+        }
+        return row;
+    }
+
+    /**
+     * @return empty node bitset sized for this map
+     */
+    public long[] newNodeSet() {
+        return new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * One step of MrX's belief propagation: every node reachable from a node in the given set with the transport
+     * @param from current set, left untouched
+     * @param transport transport used by MrX, null if MrX's used a secret ticket
+     * @param to destination set, overwritten
+     */
+    public void propagate(long[] from, @Nullable ScotlandYard.Transport transport, long[] to) {
+        Arrays.fill(to, 0);
+        int[][] table = transport == null ? adjacency : transportAdjacency[transport.ordinal()];
+        for (int word = 0; word < from.length; word++) {
+            long bits = from[word];
+            while (bits != 0) {
+                int node = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                for (int next : table[node])
+                    to[next >>> 6] |= 1L << next;
+            }
+        }
+    }
+
+    /**
+     * @param transports transports
+     * @return set of transports for {@link #reaches}
+     */
+    public static int transportMask(Iterable<ScotlandYard.Transport> transports) {
+        int mask = 0;
+        for (ScotlandYard.Transport transport : transports)
+            mask |= 1 << transport.ordinal();
+        return mask;
+    }
+
+    /**
+     * Whether a piece at the node can get to the target in 1 to the given number of steps
+     * using only the given transports, ignoring how many tickets it has of each
+     * @param node where the piece is
+     * @param transports set of transports, see {@link #transportMask}
+     * @param steps steps, 1 to {@link #MAX_REACH_STEPS}
+     * @param target target node
+     * @return t/f
+     */
+    public boolean reaches(int node, int transports, int steps, int target) {
+        checkSteps(steps);
+        int[] reachable = reachable(node, transports);
+        int index = Arrays.binarySearch(reachable, target << 2 | MAX_REACH_STEPS);
+        if (index < 0)
+            index = -index - 2;
+        return index >= 0 && reachable[index] >>> 2 == target && (reachable[index] & 3) <= steps;
+    }
+
+    /**
+     * Add to the set the nodes a piece at the node can get to in 1 to the given number of steps, see {@link #reaches}
+     * @param node where the piece is
+     * @param transports set of transports
+     * @param steps steps, 1 to {@link #MAX_REACH_STEPS}
+     * @param set node set from {@link #newNodeSet}, updated
+     */
+    public void addReachable(int node, int transports, int steps, long[] set) {
+        checkSteps(steps);
+        for (int entry : reachable(node, transports))
+            if ((entry & 3) <= steps)
+                set[entry >>> 8] |= 1L << (entry >>> 2);
+    }
+
+    private static void checkSteps(int steps) {
+        if (steps < 1 || steps > MAX_REACH_STEPS)
+            throw new IllegalArgumentException("Steps must be 1 to " + MAX_REACH_STEPS + ", got " + steps);
+    }
+
+    private int[] reachable(int node, int transports) {
+        var sources = reach.get(transports);
+        if (sources == null) {
+            reach.compareAndSet(transports, null, new AtomicReferenceArray<>(size));
+            sources = reach.get(transports);
+        }
+        int[] reachable = sources.get(node);
+        if (reachable == null) {
+            reachable = computeReach(node, transports);
+            sources.set(node, reachable);
+        }
+        return reachable;
+    }
+
+    /**
+     * BFS from the node up to {@link #MAX_REACH_STEPS} steps along the given transports
+     * The node itself is reachable in 2 steps if it has a neighbour, by going there and back
+     */
+    private int[] computeReach(int node, int transports) {
+        var steps = new HashMap<Integer, Integer>();
+        List<Integer> frontier = List.of(node);
+        for (int step = 1; step <= MAX_REACH_STEPS && !frontier.isEmpty(); step++) {
+            var next = new ArrayList<Integer>();
+            for (int from : frontier)
+                for (ScotlandYard.Transport transport : ScotlandYard.Transport.values())
+                    if ((transports & 1 << transport.ordinal()) != 0)
+                        for (int to : transportAdjacency[transport.ordinal()][from])
+                            if (to != node && steps.putIfAbsent(to, step) == null)
+                                next.add(to);
+            frontier = next;
+        }
+        if (!steps.isEmpty())
+            steps.put(node, 2);
+        return steps.entrySet().stream()
+                .mapToInt(entry -> entry.getKey() << 2 | entry.getValue())
+                .sorted()
+                .toArray();
+    }
+
+    /**
+     * BFS from the source
+     * @param source source
+     * @return distance row, with the source stored after the last node
+     */
+    private int[] computeRow(int source) {
+        int[] row = new int[size + 1];
+        Arrays.fill(row, Integer.MAX_VALUE);
+        row[size] = source;
+        int[] queue = new int[size];
+        int head = 0, tail = 0;
+        row[source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int next : adjacency[node]) {
+                if (row[next] == Integer.MAX_VALUE) {
+                    row[next] = row[node] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return row;
+    }
+}
@@ -0,0 +1,188 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on statistics of {@link MrXAi#pickMove}: latency histogram, completed depths,
+ * time left before the deadline, deadline misses and moves returned before the search found one (null moves)
+ * Every game gets its own instance and every move is also added to {@link #GLOBAL}
+ * Set the property scotlandyard.ai.stats to a file to append a JSON line with the global summary
+ * every scotlandyard.ai.stats.period seconds (60 by default)
+ */
+public final class MoveStats {
+    private static final Logger logger = LoggerFactory.getLogger(MoveStats.class);
+    private static final int MAX_DEPTH = 64;
+
+    /** statistics across every game of this JVM */
+    public static final MoveStats GLOBAL = new MoveStats("global");
+
+    static {
+        String file = System.getProperty("scotlandyard.ai.stats");
+        if (file != null)
+            startDump(Paths.get(file), Long.getLong("scotlandyard.ai.stats.period", 60));
+    }
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram remaining = new LatencyHistogram();
+    private final AtomicLongArray depths = new AtomicLongArray(MAX_DEPTH + 1);
+    private final LongAccumulator minRemaining = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder nullMoves = new LongAdder();
+
+    /**
+     * @param name name used in the summaries
+     */
+    public MoveStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record one move, in this instance and in {@link #GLOBAL}
+     * @param latencyMicros time spent in pickMove
+     * @param deadlineMicros time the framework allows
+     * @param completedDepth deepest finished iteration, 0 if none
+     * @param moveFound whether the search had found a move, rather than falling back to a heuristic one
+     */
+    public void record(long latencyMicros, long deadlineMicros, int completedDepth, boolean moveFound) {
+        add(latencyMicros, deadlineMicros, completedDepth, moveFound);
+        if (this != GLOBAL)
+            GLOBAL.add(latencyMicros, deadlineMicros, completedDepth, moveFound);
+    }
+
+    private void add(long latencyMicros, long deadlineMicros, int completedDepth, boolean moveFound) {
+        long left = deadlineMicros - latencyMicros;
+        latency.record(latencyMicros);
+        remaining.record(left);
+        minRemaining.accumulate(left);
+        depths.incrementAndGet(Math.min(MAX_DEPTH, Math.max(0, completedDepth)));
+        if (left < 0)
+            misses.increment();
+        if (!moveFound)
+            nullMoves.increment();
+    }
+
+    public long getMoves() {
+        return latency.count();
+    }
+
+    public long getDeadlineMisses() {
+        return misses.sum();
+    }
+
+    public long getNullMoves() {
+        return nullMoves.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return smallest time left before the deadline in microseconds, negative after a miss
+     */
+    public long getMinRemaining() {
+        return getMoves() == 0 ? 0 : minRemaining.get();
+    }
+
+    /**
+     * @return mean completed depth
+     */
+    public double getMeanDepth() {
+        long moves = 0, total = 0;
+        for (int d = 0; d <= MAX_DEPTH; d++) {
+            moves += depths.get(d);
+            total += d * depths.get(d);
+        }
+        return moves == 0 ? 0 : (double) total / moves;
+    }
+
+    /**
+     * @return shallowest completed depth, 0 if a move finished no iteration or nothing was recorded
+     */
+    public int getMinDepth() {
+        for (int d = 0; d <= MAX_DEPTH; d++)
+            if (depths.get(d) > 0)
+                return d;
+        return 0;
+    }
+
+    /**
+     * Log a summary line
+     */
+    public void log() {
+        if (getDeadlineMisses() > 0 || getNullMoves() > 0)
+            logger.warn(toString());
+        else
+            logger.info(toString());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "%s: %d moves, latency ms p50 %.1f p99 %.1f max %.1f, depth mean %.1f min %d, "
+                        + "min remaining %.1f ms, %d deadline misses, %d null moves",
+                name, getMoves(), latency.quantile(0.5) / 1e3, latency.quantile(0.99) / 1e3, latency.max() / 1e3,
+                getMeanDepth(), getMinDepth(), getMinRemaining() / 1e3, getDeadlineMisses(), getNullMoves());
+    }
+
+    /**
+     * @return summary as a single line JSON object, durations in microseconds
+     */
+    public String toJson() {
+        var depthCounts = new StringBuilder();
+        for (int d = 0; d <= MAX_DEPTH; d++) {
+            if (depths.get(d) == 0)
+                continue;
+            if (depthCounts.length() > 0)
+                depthCounts.append(',');
+            depthCounts.append('"').append(d).append("\":").append(depths.get(d));
+        }
+        return String.format(Locale.ROOT,
+                "{\"name\":\"%s\",\"timestamp\":%d,\"moves\":%d,"
+                        + "\"latency\":{\"mean\":%.0f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d},"
+                        + "\"remaining\":{\"min\":%d,\"p1\":%d,\"p50\":%d},"
+                        + "\"depths\":{%s},\"deadlineMisses\":%d,\"nullMoves\":%d}",
+                name, System.currentTimeMillis(), getMoves(),
+                latency.mean(), latency.quantile(0.5), latency.quantile(0.9), latency.quantile(0.99),
+                latency.quantile(0.999), latency.max(),
+                getMinRemaining(), remaining.quantile(0.01), remaining.quantile(0.5),
+                depthCounts, getDeadlineMisses(), getNullMoves());
+    }
+
+    /**
+     * Append {@link #GLOBAL}'s summary to the file periodically, on a daemon thread
+     * @param file output, one JSON object per line
+     * @param periodSeconds seconds between two lines
+     */
+    public static void startDump(Path file, long periodSeconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "move-stats-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                Files.write(file, (GLOBAL.toJson() + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                logger.warn("Cannot write move statistics to {}", file, e);
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -5,48 +5,86 @@ import uk.ac.bris.cs.scotlandyard.model.Board;
 import uk.ac.bris.cs.scotlandyard.model.Move;
 
 import javax.annotation.Nonnull;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MrXAi implements Ai {
-	@Nonnull @Override public String name() { return "Pikachuuuuuuuuuuu!"; }
+	/** time the framework gives each move */
+	private static final long TIME_LIMIT_MILLIS = 15000;
+	/** time the search may use, the rest is left for returning the move */
+	private static final long SEARCH_BUDGET_MILLIS = 14500;
+	/** time the warm-up may take before the first move */
+	private static final long WARM_UP_MILLIS = 3000;
+	/** joint detective responses searched per round, see {@link Utils#withCoalition}; 0 searches them one by one */
+	private static final int COALITION_WIDTH = Integer.getInteger("scotlandyard.ai.coalition", 0);
+	/** MrX's rounds played out on the map's regions to narrow his moves, see {@link Utils#withPlan}; 0 doesn't */
+	private static final int PLAN_ROUNDS = Integer.getInteger("scotlandyard.ai.plan", 0);
+	private static final AtomicInteger games = new AtomicInteger();
 
-	@Nonnull @Override public Move pickMove(
-			@Nonnull Board board,
-			@Nonnull AtomicBoolean terminate) {
+	private final EvaluationWeights weights = EvaluationWeights.fromProperty();
+	private MoveStats stats = new MoveStats("game");
 
-		AtomicReference<Move> bestMove = new AtomicReference<>();
-		var realTerminate = setTimer();
+	@Nonnull @Override public String name() { return "Pikachuuuuuuuuuuu!"; }
 
-		ExecutorService executor = Executors.newSingleThreadExecutor();
-		var task = executor.submit(() -> {
-			Utils u = new Utils(board, 20);
-			while (u.hasNext()) {
-				bestMove.set(u.next());
-			}
-		});
+	/**
+	 * Build the map tables and JIT-compile the search before the first move
+	 */
+	@Override public void onStart() {
+		stats = new MoveStats("game " + games.incrementAndGet());
+		warmUp();
+	}
 
-//		while (!terminate.get() && !task.isDone()); -- UI bugs
-		while (!realTerminate.get() && !task.isDone());
+	/**
+	 * Warm up the searches pickMove runs, once per JVM
+	 */
+	void warmUp() {
+		new WarmUp(WARM_UP_MILLIS, SearchHost.shared(), this::newSearch).run();
+	}
 
-		executor.shutdown();
-		return bestMove.get();
+	/**
+	 * Log the statistics of the game and of every game so far
+	 */
+	@Override public void onTerminate() {
+		stats.log();
+		MoveStats.GLOBAL.log();
 	}
 
-	private AtomicBoolean setTimer() {
-		var realTerminate = new AtomicBoolean(false);
-		new Timer().schedule(new TimerTask() {
-			@Override
-			public void run() {
-				realTerminate.set(true);
-			}
-		}, 14500);
+	/**
+	 * Search on the {@link SearchHost#shared} pool, so games hosted in the same JVM share the cores,
+	 * and return the best move published by the end of the budget
+	 */
+	@Nonnull @Override public Move pickMove(
+			@Nonnull Board board,
+			@Nonnull AtomicBoolean terminate) {
+		return search(newSearch(board), System.nanoTime(), SEARCH_BUDGET_MILLIS, TIME_LIMIT_MILLIS).join().move;
+	}
 
-		return realTerminate;
+	/**
+	 * Search of the position with this AI's settings, not started yet
+	 * @param board position, MrX to move
+	 * @return search
+	 */
+	Utils newSearch(Board board) {
+		//the search publishes its best root move as it goes, starting with a fallback move
+		return new Utils(board, 20).withWeights(weights).withCoalition(COALITION_WIDTH)
+				.withProofBudget(ProofSearch.DEFAULT_BUDGET)
+				.withPlan(PLAN_ROUNDS);
 	}
 
+	/**
+	 * Schedule a search and record its statistics once it completes
+	 * @param u search made by {@link #newSearch}, {@link Utils#stop} it to drop it
+	 * @param start System.nanoTime() when the move was asked for
+	 * @param budgetMillis time the search may use from the start
+	 * @param limitMillis time the caller gives the move, for the statistics
+	 * @return future of {@link SearchHost#submit}
+	 */
+	CompletableFuture<Utils.RootMove> search(Utils u, long start, long budgetMillis, long limitMillis) {
+		var result = SearchHost.shared().submit(u, start + TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+		result.thenAccept(best -> stats.record((System.nanoTime() - start) / 1000, limitMillis * 1000,
+				best.depth, best.depth > 0));
+		return result;
+	}
 }
@@ -50,9 +50,10 @@ public class PathFinder<V> {
     }
 
     private void prepareTable() {
-        this.queue = new PriorityQueue<Row>(200,
+        this.queue = new PriorityQueue<Row>(Math.max(1, graph.nodes().size()),
                 (e1, e2) -> e1.priority - e2.priority);
-        this.references = new Row[200]; //there're in total 199 nodes
+        int maxNode = graph.nodes().stream().mapToInt(Integer::intValue).max().orElse(0);
+        this.references = new Row[maxNode + 1]; //indexed by node id
 
 //        initialization
         for (Integer node : graph.nodes()) {
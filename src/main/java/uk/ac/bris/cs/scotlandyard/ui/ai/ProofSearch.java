@@ -0,0 +1,258 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableSet;
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Depth-first proof-number search (df-pn) deciding whether MrX can force a win (escape until the end of the game)
+ * or the detectives can force a capture, within a budget of nodes
+ * MrX's turns are OR nodes and the detectives' are AND nodes for the proof of a MrX win;
+ * unlike {@link Utils} every move of every piece is considered, so that proofs hold for the whole game tree
+ * Numbers are kept in a transposition table, so the orders in which the detectives can move within a round
+ * are solved once; unseen positions start with their mobility as proof or disproof number
+ * Like the main search it assumes the detectives know where MrX is
+ * Credit to @see https://doi.org/10.1016/0004-3702(94)90004-3 (Allis, van der Meulen and van den Herik)
+ * and Nagai's df-pn (PhD thesis, University of Tokyo, 2002)
+ */
+public final class ProofSearch {
+    /** nodes a search creates unless told otherwise, about a third of a second of work on the standard map */
+    public static final int DEFAULT_BUDGET = 5000;
+    private static final int INFINITY = Integer.MAX_VALUE;
+    private static final ScotlandYard.Ticket[] TICKETS = ScotlandYard.Ticket.values();
+
+    /**
+     * Outcome from MrX's point of view
+     */
+    public enum Result {
+        /** MrX wins whatever the detectives do */
+        WIN,
+        /** the detectives win whatever MrX does */
+        LOSS,
+        /** not decided within the budget */
+        UNKNOWN
+    }
+
+    private final Board.GameState rootState;
+    private final int rootMrXLocation;
+    private final int budget;
+    private final BooleanSupplier cancelled;
+    private final Map<Key, Entry> table = new HashMap<>();
+    private int nodes;
+
+    private static final class Entry {
+        int proof;
+        int disproof;
+
+        boolean solved() {
+            return proof == 0 || disproof == 0;
+        }
+    }
+
+    /**
+     * Everything a position's outcome depends on: round, detectives still to move, locations and tickets
+     */
+    private static final class Key {
+        private final int[] fields;
+        private final int hash;
+
+        Key(int[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(fields, ((Key) o).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @param state position to solve, MrX to move
+     * @param budget maximum number of nodes to create
+     * @param cancelled polled between expansions, the search gives up once it's true
+     */
+    public ProofSearch(Board.GameState state, int budget, BooleanSupplier cancelled) {
+        this.rootState = state;
+        this.rootMrXLocation = state.getAvailableMoves().iterator().next().source();
+        this.budget = budget;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Search until the root is solved, the budget is spent or the search is cancelled
+     * @return outcome
+     */
+    public Result solve() {
+        var root = entry(rootState, rootMrXLocation);
+        if (!root.solved())
+            search(rootState, rootMrXLocation, root, INFINITY, INFINITY);
+        if (root.proof == 0)
+            return Result.WIN;
+        return root.disproof == 0 ? Result.LOSS : Result.UNKNOWN;
+    }
+
+    /**
+     * Expand a node until its numbers reach a threshold, always going down the most-proving child
+     * @param state unsolved position
+     * @param mrXLocation where MrX is
+     * @param entry the position's entry, updated
+     * @param proofThreshold proof number at which to return
+     * @param disproofThreshold disproof number at which to return
+     */
+    private void search(Board.GameState state, int mrXLocation, Entry entry,
+                        int proofThreshold, int disproofThreshold) {
+        var moves = state.getAvailableMoves().asList();
+        boolean mrXToMove = moves.get(0).commencedBy().isMrX();
+        var children = new Board.GameState[moves.size()];
+        var locations = new int[moves.size()];
+        var entries = new Entry[moves.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = state.advance(moves.get(i));
+            locations[i] = mrXToMove ? Evaluator.finalDestination(moves.get(i)) : mrXLocation;
+            entries[i] = entry(children[i], locations[i]);
+        }
+        nodes += children.length;
+
+        while (true) {
+            //MrX needs one proven move but all of his moves disproven, the other way round for the detectives
+            int best = -1, second = INFINITY, selected = INFINITY, sum = 0;
+            for (int i = 0; i < entries.length; i++) {
+                int number = mrXToMove ? entries[i].proof : entries[i].disproof;
+                sum = add(sum, mrXToMove ? entries[i].disproof : entries[i].proof);
+                if (best < 0 || number < selected) {
+                    second = selected;
+                    selected = number;
+                    best = i;
+                } else if (number < second) {
+                    second = number;
+                }
+            }
+            entry.proof = mrXToMove ? selected : sum;
+            entry.disproof = mrXToMove ? sum : selected;
+            if (entry.proof >= proofThreshold || entry.disproof >= disproofThreshold || spent())
+                return;
+
+            Entry child = entries[best];
+            if (mrXToMove)
+                search(children[best], locations[best], child, Math.min(proofThreshold, add(second, 1)),
+                        add(subtract(disproofThreshold, entry.disproof), child.disproof));
+            else
+                search(children[best], locations[best], child,
+                        add(subtract(proofThreshold, entry.proof), child.proof),
+                        Math.min(disproofThreshold, add(second, 1)));
+        }
+    }
+
+    private boolean spent() {
+        return nodes >= budget || cancelled.getAsBoolean();
+    }
+
+    /**
+     * @return entry of the position, created with its initial numbers if it's new
+     */
+    private Entry entry(Board.GameState state, int mrXLocation) {
+        var winner = state.getWinner();
+        boolean mrXToMove = winner.isEmpty() && state.getAvailableMoves().iterator().next().commencedBy().isMrX();
+        var key = key(state, mrXLocation, mrXToMove);
+        var entry = table.get(key);
+        if (entry != null)
+            return entry;
+        entry = new Entry();
+        if (!winner.isEmpty()) {
+            boolean mrXWins = winner.contains(Piece.MrX.MRX);
+            entry.proof = mrXWins ? 0 : INFINITY;
+            entry.disproof = mrXWins ? INFINITY : 0;
+        } else {
+            int moves = state.getAvailableMoves().size();
+            entry.proof = mrXToMove ? 1 : moves;
+            entry.disproof = mrXToMove ? moves : 1;
+        }
+        table.put(key, entry);
+        return entry;
+    }
+
+    private static Key key(Board.GameState state, int mrXLocation, boolean mrXToMove) {
+        var players = state.getPlayers();
+        int[] fields = new int[2 + 2 * players.size()];
+        int toMove = 0;
+        if (!mrXToMove)
+            for (Move move : state.getAvailableMoves())
+                toMove |= 1 << ScotlandYard.ALL_PIECES.indexOf(move.commencedBy());
+        fields[0] = state.getMrXTravelLog().size();
+        fields[1] = toMove;
+        int i = 2;
+        for (Piece piece : players) {
+            fields[i++] = piece.isMrX()
+                    ? mrXLocation
+                    : state.getDetectiveLocation((Piece.Detective) piece).orElseThrow();
+            var tickets = state.getPlayerTickets(piece).orElseThrow();
+            int packed = 0;
+            for (ScotlandYard.Ticket ticket : TICKETS)
+                packed = packed << 6 | Math.min(63, tickets.getCount(ticket));
+            fields[i++] = packed;
+        }
+        return new Key(fields);
+    }
+
+    private static int add(int a, int b) {
+        return a >= INFINITY - b ? INFINITY : a + b;
+    }
+
+    private static int subtract(int threshold, int value) {
+        return threshold == INFINITY ? INFINITY : threshold - value;
+    }
+
+    /**
+     * @return a move that wins for MrX if the position was proven a win, null otherwise
+     */
+    @Nullable
+    public Move getWinningMove() {
+        for (Move move : rootState.getAvailableMoves()) {
+            var entry = table.get(childKey(move));
+            if (entry != null && entry.proof == 0)
+                return move;
+        }
+        return null;
+    }
+
+    /**
+     * @return moves of the root proven to lose, every move if the position is lost
+     */
+    public ImmutableSet<Move> getLosingMoves() {
+        var losing = ImmutableSet.<Move>builder();
+        for (Move move : rootState.getAvailableMoves()) {
+            var entry = table.get(childKey(move));
+            if (entry != null && entry.disproof == 0)
+                losing.add(move);
+        }
+        return losing.build();
+    }
+
+    private Key childKey(Move move) {
+        var child = rootState.advance(move);
+        boolean mrXToMove = child.getWinner().isEmpty()
+                && child.getAvailableMoves().iterator().next().commencedBy().isMrX();
+        return key(child, Evaluator.finalDestination(move), mrXToMove);
+    }
+
+    /**
+     * @return nodes created so far
+     */
+    public int getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,216 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the searches of many simultaneous games on one bounded pool of threads
+ * Work is scheduled one iterative-deepening iteration at a time: a free thread takes the search with the least
+ * slack, the time left before its deadline once the work it needs to answer is done, which is its first iteration
+ * until it has a move and nothing after; among equals the shallowest search goes first
+ * An iteration can't be split, so it runs in time slices: at the end of each one, if a search with less slack
+ * is waiting, the iteration is paused and searched again from the start once the game's turn comes back
+ * A watchdog stops each search shortly before its deadline and completes it with the best move published so far,
+ * so an iteration that won't finish in time is still started, an interrupted iteration's moves count; only while
+ * other games are waiting for a thread is a game whose next iteration is predicted to overrun finished early
+ * Map tables are shared by every game through {@link MapTables#of}
+ */
+public final class SearchHost {
+    private static final Logger logger = LoggerFactory.getLogger(SearchHost.class);
+    /** growth of an iteration's time over the previous one, assumed until two iterations have been timed */
+    private static final double DEFAULT_GROWTH = 4;
+    private static final double MAX_GROWTH = 32;
+    /** time left for the stopped search to unwind and the caller to be scheduled */
+    private static final long STOP_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    /** time of a first iteration, assumed until one has been timed */
+    private static final long DEFAULT_FIRST_ITERATION_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    /** how long an iteration runs before the searches waiting for a thread may preempt it */
+    private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(25);
+    private static volatile SearchHost shared;
+
+    private final int threads;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>(64,
+            Comparator.<Job>comparingLong(job -> job.slack).thenComparingInt(job -> job.completedDepth));
+    private final ScheduledThreadPoolExecutor watchdog;
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final long createdAt = System.nanoTime();
+    private volatile long firstIteration = DEFAULT_FIRST_ITERATION_NANOS;
+
+    /**
+     * @param threads number of search threads
+     */
+    public SearchHost(int threads) {
+        this.threads = threads;
+        var ids = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            var thread = new Thread(runnable, "search-" + ids.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        for (int i = 0; i < threads; i++)
+            factory.newThread(this::work).start();
+        this.watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            var thread = new Thread(runnable, "search-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Host shared by every {@link MrXAi} of this JVM, with scotlandyard.ai.threads threads
+     * (one per core by default)
+     * @return host
+     */
+    public static SearchHost shared() {
+        if (shared == null) {
+            synchronized (SearchHost.class) {
+                if (shared == null)
+                    shared = new SearchHost(Integer.getInteger("scotlandyard.ai.threads",
+                            Runtime.getRuntime().availableProcessors()));
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Schedule a search
+     * @param search search, not used by anyone else until the result is complete
+     * @param deadline System.nanoTime() by which the result must be complete
+     * @return best move found by the deadline, never completes exceptionally
+     */
+    public CompletableFuture<Utils.RootMove> submit(Utils search, long deadline) {
+        var job = new Job(search, deadline);
+        searches.increment();
+        job.timeout = watchdog.schedule(job::expire,
+                Math.max(0, deadline - STOP_MARGIN_NANOS - System.nanoTime()), TimeUnit.NANOSECONDS);
+        job.slack = deadline - firstIteration;
+        queue.add(job);
+        return job.result;
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job.result.isDone())
+                continue;
+            long start = System.nanoTime();
+            if (job.completedDepth > 0 && !queue.isEmpty()
+                    && start + job.predictNext() > job.deadline - STOP_MARGIN_NANOS) {
+                job.finish();
+                continue;
+            }
+            var slices = watchdog.scheduleAtFixedRate(() -> preempt(job), SLICE_NANOS, SLICE_NANOS,
+                    TimeUnit.NANOSECONDS);
+            try {
+                job.search.next();
+            } catch (Throwable e) {
+                logger.error("Search failed", e);
+                job.finish();
+                continue;
+            } finally {
+                slices.cancel(false);
+                busyNanos.add(System.nanoTime() - start);
+            }
+            iterations.increment();
+            int depth = job.search.getCompletedDepth();
+            if (depth > job.completedDepth) {
+                job.previousIteration = job.lastIteration;
+                job.lastIteration = System.nanoTime() - start;
+                if (job.completedDepth == 0)
+                    firstIteration = job.lastIteration;
+                job.completedDepth = depth;
+            }
+            if (job.search.hasNext() && !job.result.isDone()) {
+                job.slack = job.completedDepth > 0 ? job.deadline : job.deadline - firstIteration;
+                queue.add(job);
+            } else {
+                job.finish();
+            }
+        }
+    }
+
+    /**
+     * Pause the running iteration of the job if a search with less slack is waiting for a thread
+     * @param job job whose iteration is running
+     */
+    private void preempt(Job job) {
+        var waiting = queue.peek();
+        if (waiting != null && waiting.slack < job.slack)
+            job.search.pause();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    /**
+     * @return fraction of the threads' time spent searching since the host was created
+     */
+    public double getUtilisation() {
+        long wall = System.nanoTime() - createdAt;
+        return wall <= 0 ? 0 : (double) busyNanos.sum() / ((double) wall * threads);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SearchHost{threads=%d, searches=%d, iterations=%d, queued=%d, utilisation=%.2f}",
+                threads, getSearches(), iterations.sum(), queue.size(), getUtilisation());
+    }
+
+    private static final class Job {
+        final Utils search;
+        final long deadline;
+        final CompletableFuture<Utils.RootMove> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+        /** deadline less the time of the first iteration if it's still to do, set before the job is queued */
+        volatile long slack;
+        // only touched by the thread running the job's current iteration
+        int completedDepth;
+        long lastIteration;
+        long previousIteration;
+
+        Job(Utils search, long deadline) {
+            this.search = search;
+            this.deadline = deadline;
+        }
+
+        long predictNext() {
+            double growth = previousIteration > 0
+                    ? Math.min(MAX_GROWTH, Math.max(1, (double) lastIteration / previousIteration))
+                    : DEFAULT_GROWTH;
+            return (long) (lastIteration * growth);
+        }
+
+        void expire() {
+            search.stop();
+            finish();
+        }
+
+        void finish() {
+            if (result.complete(search.getBestRootMove()) && timeout != null)
+                timeout.cancel(false);
+        }
+    }
+}
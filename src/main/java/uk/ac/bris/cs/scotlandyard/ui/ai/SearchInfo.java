@@ -0,0 +1,76 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+
+import java.util.stream.Collectors;
+
+/**
+ * Progress of a search, as published by {@link Utils#analysis}
+ */
+public final class SearchInfo {
+    /**
+     * What the event reports
+     */
+    public enum Kind {
+        /** a root move was proven better than the ones searched before it in the running iteration */
+        BEST_MOVE,
+        /** an iteration completed, with every line it found */
+        DEPTH
+    }
+
+    /**
+     * A root move with its value and the principal variation that starts with it
+     */
+    public static final class Line {
+        public final Move move;
+        public final double score;
+        /**
+         * moves from the root, starting with {@link #move}, until the searched depth or the end of the game;
+         * a round searched as one coalition layer brings every detective's move of it, so the line can be played
+         */
+        public final ImmutableList<Move> pv;
+
+        Line(Move move, double score, ImmutableList<Move> pv) {
+            this.move = move;
+            this.score = score;
+            this.pv = pv;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f %s", score, pv.stream().map(Move::toString).collect(Collectors.joining(" ")));
+        }
+    }
+
+    public final Kind kind;
+    /** depth of the iteration */
+    public final int depth;
+    /** best line first; {@link Kind#BEST_MOVE} events only hold the new best line */
+    public final ImmutableList<Line> lines;
+    /** nodes visited since the search started */
+    public final long nodes;
+    /** time since the search was created */
+    public final long elapsedNanos;
+
+    SearchInfo(Kind kind, int depth, ImmutableList<Line> lines, long nodes, long elapsedNanos) {
+        this.kind = kind;
+        this.depth = depth;
+        this.lines = lines;
+        this.nodes = nodes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return best line
+     */
+    public Line best() {
+        return lines.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s depth %d nodes %d %.1f ms: %s", kind, depth, nodes, elapsedNanos / 1e6,
+                lines.stream().map(Line::toString).collect(Collectors.joining(" | ")));
+    }
+}
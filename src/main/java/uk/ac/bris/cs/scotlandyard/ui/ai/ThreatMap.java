@@ -0,0 +1,95 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.model.Move;
+import uk.ac.bris.cs.scotlandyard.model.Piece;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import java.util.Arrays;
+
+/**
+ * Where the detectives of a position can get to in the next few turns, built from {@link MapTables#reaches}
+ * Each detective only uses the transports it has tickets for, how many it has of each is ignored
+ * After it's built every question is a few bit tests
+ */
+public final class ThreatMap {
+    private final MapTables tables;
+    private final int[] locations;
+    private final int[] transports;
+    /** [k - 1]: nodes some detective can get to in 1 to k turns */
+    private final long[][] within;
+
+    private ThreatMap(MapTables tables, int[] locations, int[] transports) {
+        this.tables = tables;
+        this.locations = locations;
+        this.transports = transports;
+        this.within = new long[MapTables.MAX_REACH_STEPS][];
+        for (int k = 0; k < within.length; k++) {
+            within[k] = tables.newNodeSet();
+            for (int i = 0; i < locations.length; i++)
+                tables.addReachable(locations[i], transports[i], k + 1, within[k]);
+        }
+    }
+
+    /**
+     * @param tables tables of the position's map
+     * @param state position
+     * @return threat map of the detectives of the position
+     */
+    public static ThreatMap of(MapTables tables, Board state) {
+        var detectives = Piece.Detective.values();
+        int[] locations = new int[detectives.length];
+        int[] transports = new int[detectives.length];
+        int count = 0;
+        for (Piece.Detective detective : detectives) {
+            var location = state.getDetectiveLocation(detective);
+            if (location.isEmpty())
+                continue;
+            var tickets = state.getPlayerTickets(detective).orElseThrow();
+            int mask = 0;
+            for (ScotlandYard.Ticket ticket : ScotlandYard.Ticket.values()) {
+                var transport = Utils.getCorrespondingTransport(ticket);
+                if (transport != null && tickets.getCount(ticket) > 0)
+                    mask |= 1 << transport.ordinal();
+            }
+            locations[count] = location.get();
+            transports[count++] = mask;
+        }
+        return new ThreatMap(tables, Arrays.copyOf(locations, count), Arrays.copyOf(transports, count));
+    }
+
+    /**
+     * @param node node
+     * @param turns turns, 1 to {@link MapTables#MAX_REACH_STEPS}
+     * @return whether a detective can be at the node within the given number of turns
+     */
+    public boolean isThreatened(int node, int turns) {
+        return (within[turns - 1][node >>> 6] & 1L << node) != 0;
+    }
+
+    /**
+     * @param node node
+     * @return number of detectives that can move to the node next turn
+     */
+    public int threatCount(int node) {
+        int count = 0;
+        for (int i = 0; i < locations.length; i++)
+            if (tables.reaches(locations[i], transports[i], 1, node))
+                count++;
+        return count;
+    }
+
+    /**
+     * @param move MrX's move
+     * @return whether no detective stands on or can move to the move's destination next turn
+     */
+    public boolean isSafe(Move move) {
+        int destination = Evaluator.finalDestination(move);
+        if (isThreatened(destination, 1))
+            return false;
+        for (int location : locations)
+            if (location == destination)
+                return false;
+        return true;
+    }
+}
@@ -1,5 +1,6 @@
 package uk.ac.bris.cs.scotlandyard.ui.ai;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.graph.ImmutableValueGraph;
 import uk.ac.bris.cs.scotlandyard.model.Board;
@@ -9,19 +10,26 @@ import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
 
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
  * Utility class that gives the best move based on MiniMax algorithm
  * MiniMax + AlphaBeta pruning + Iterative Deepening + Killer Heuristic
- * Evaluation(state) = min(distance(MrX, detective)) + sum(distance(MrX, detective)) / 100 + #MrXSecreteTickets / 10 + possibleLocationOfMrX / 100
+ * Leaves are scored by an {@link Evaluator}, {@link DefaultEvaluator} unless another one is plugged in
+ * Optionally critical positions are first given to a {@link ProofSearch}, whose proofs end the search or rule out
+ * root moves, see {@link #withProofBudget}
+ * Optionally the detectives' round is searched as one layer of joint responses, see {@link #withCoalition}
+ * Optionally MrX's root moves are first narrowed to a plan played out on the regions of the map, see {@link #withPlan}
  * Credit to @see https://dke.maastrichtuniversity.nl/m.winands/documents/TCAIG_ScotlandYard.pdf
  * and @see https://incoherency.co.uk/blog/stories/scotland-yard.html
  */
 @SuppressWarnings("UnstableApiUsage")
 public class Utils implements Iterator<Move> {
     private ImmutableValueGraph<Integer, ImmutableSet<ScotlandYard.Transport>> graph;
+    private MapTables tables;
     private List<Integer> revealRounds;
     private Move[][] killerMoves;
 
@@ -31,7 +39,62 @@ public class Utils implements Iterator<Move> {
 
     private final int maxKillerMoveSlot = 2;
     private final int dangerThreshold = 10;
+    /** MrX's rounds left under which escapes are worth proving */
+    private final int escapeRounds = 1;
+    private int proofBudget;
+    private boolean proofTried;
+    private boolean solved;
+    private ImmutableSet<Move> losingRootMoves = ImmutableSet.of();
     private boolean enableKillerMoves = true;
+    private int coalitionWidth;
+    private int planRounds;
+    private MapAbstraction.Plan plan;
+    /** moves of each detective combined into joint responses, the closest to MrX */
+    private static final int COALITION_MOVES_PER_DETECTIVE = 3;
+    private Evaluator evaluator;
+    private final int rootMrXLocation;
+    private double[] frontierScores = new double[64];
+    private volatile RootMove best;
+    private volatile boolean stopped;
+    private volatile boolean paused;
+    private long nodes;
+    private long proofNodes;
+    //triangular table: pv[d] is the line found from depth d, up to pvLength[d]
+    private final Move[][] pv;
+    //jointPv[d][i] holds every move of the coalition's response played at pv[d][i], null for a single move
+    private final Move[][][] jointPv;
+    private final int[] pvLength;
+    private int multiPv = 1;
+    private volatile ImmutableList<SearchInfo.Line> lines = ImmutableList.of();
+    private volatile SubmissionPublisher<SearchInfo> publisher;
+    private final long createdAt = System.nanoTime();
+
+    /**
+     * Best root move known so far, published as soon as it is found
+     */
+    public static final class RootMove {
+        public final Move move;
+        /** depth the move was searched to, 0 for the fallback move */
+        public final int depth;
+        /** value of the move at that depth */
+        public final double score;
+
+        RootMove(Move move, int depth, double score) {
+            this.move = move;
+            this.depth = depth;
+            this.score = score;
+        }
+    }
+
+    /** thrown through the search once it's been stopped, preallocated since it's only a signal */
+    private static final class SearchStopped extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private static final SearchStopped INSTANCE = new SearchStopped();
+
+        private SearchStopped() {
+            super(null, null, false, false);
+        }
+    }
 
     /**
      * Create a new Utility class with given board and max depth
@@ -44,26 +107,278 @@ public class Utils implements Iterator<Move> {
         this.rootState = b;
         this.maxDepth = maxDepth;
         this.graph = b.getSetup().graph;
+        this.tables = MapTables.of(graph);
         this.killerMoves = new Move[maxDepth + 1][];
         for (int i = 0; i < maxDepth + 1; i++) {
             killerMoves[i] = new Move[maxKillerMoveSlot];
         }
+        this.pv = new Move[maxDepth + 2][maxDepth + 2];
+        this.jointPv = new Move[maxDepth + 2][maxDepth + 2][];
+        this.pvLength = new int[maxDepth + 2];
         var rounds = b.getSetup().rounds;
+        this.evaluator = new DefaultEvaluator(tables, rounds, EvaluationWeights.DEFAULT);
+        //only MrX searches, so the root's moves start from his location
+        this.rootMrXLocation = b.getAvailableMoves().iterator().next().source();
         this.revealRounds = IntStream
                 .range(0, rounds.size())
                 .filter(rounds::get)
                 .boxed()
                 .collect(Collectors.toList());
+        this.best = new RootMove(fallbackMove((Board.GameState) b), 0, Double.NaN);
     }
 
     /**
      * Return the best move
-     * Since the best move per ply is always added to the begging of the array,
-     * the best move for root node can be found at killerMoves[0][0]
+     * Safe to call from any thread at any time, before the first iteration it's {@link #fallbackMove}
      * @return best move
      */
     public Move getBestMove() {
-        return killerMoves[0][0];
+        return best.move;
+    }
+
+    /**
+     * @return best root move with the depth and value it was found at
+     */
+    public RootMove getBestRootMove() {
+        return best;
+    }
+
+    /**
+     * Best lines of the last completed iteration, best first, at most {@link #withMultiPv} of them
+     * @return lines, empty before the first iteration completes
+     */
+    public ImmutableList<SearchInfo.Line> getLines() {
+        return lines;
+    }
+
+    /**
+     * Make the running iteration return as soon as possible, the moves published so far are kept
+     * Safe to call from any thread, completes the {@link #analysis} stream
+     */
+    public void stop() {
+        stopped = true;
+        var publisher = this.publisher;
+        if (publisher != null)
+            publisher.close();
+    }
+
+    /**
+     * Make the running iteration return as soon as possible without stopping the search:
+     * the next call to {@link #next} searches the same depth again, the moves published so far are kept
+     * Safe to call from any thread, only affects the iteration running at the time of the call
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Stream of the search's progress: every new best root move while an iteration runs,
+     * then every completed iteration with its best lines; it completes when the search is done or stopped
+     * Events are delivered asynchronously and never slow the search down, a subscriber that falls more than
+     * {@link Flow#defaultBufferSize} events behind misses the ones that don't fit
+     * Subscribe before searching to see every event
+     * @return publisher
+     */
+    public synchronized Flow.Publisher<SearchInfo> analysis() {
+        if (publisher == null) {
+            publisher = new SubmissionPublisher<>();
+            if (stopped || !hasNext())
+                publisher.close();
+        }
+        return publisher;
+    }
+
+    private void publish(SearchInfo.Kind kind, ImmutableList<SearchInfo.Line> lines) {
+        publish(kind, currDepth, lines);
+    }
+
+    private void publish(SearchInfo.Kind kind, int depth, ImmutableList<SearchInfo.Line> lines) {
+        var publisher = this.publisher;
+        if (publisher == null || publisher.isClosed() || !publisher.hasSubscribers())
+            return;
+        try {
+            publisher.offer(new SearchInfo(kind, depth, lines, nodes, System.nanoTime() - createdAt),
+                    (subscriber, dropped) -> false);
+        } catch (IllegalStateException e) {
+            //closed by stop() meanwhile
+        }
+    }
+
+    /**
+     * Move to play when there's no time to search: MrX's single move that ends farthest from
+     * the closest detective, without a secret ticket if possible
+     * @param state state where MrX is to move
+     * @return move
+     */
+    private Move fallbackMove(Board.GameState state) {
+        var moves = state.getAvailableMoves().asList();
+        var detectives = getDetectiveLocations(state);
+        Move bestMove = moves.get(0);
+        int bestScore = Integer.MIN_VALUE;
+        for (Move move : moves) {
+            if (!(move instanceof Move.SingleMove))
+                continue;
+            var sm = (Move.SingleMove) move;
+            int[] distances = tables.distancesFrom(sm.destination);
+            int closest = Integer.MAX_VALUE;
+            for (int location : detectives)
+                closest = Math.min(closest, distances[location]);
+            int score = 2 * Math.min(closest, tables.nodeCount) + (sm.ticket == ScotlandYard.Ticket.SECRET ? 0 : 1);
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Search the root's moves to the current depth
+     * The root's best move is published every time a root move is proven better than the ones searched
+     * before it in this iteration, so an interrupted iteration still counts once its first move is done:
+     * that move is the previous iteration's best and the others have then been either refuted or proven better
+     * With several lines, alpha is the value of the K-th best move so far, so that the K best get exact values
+     * in the same pass and the others are still cut off; the previous iteration's lines are searched first
+     */
+    private void searchRoot() {
+        if (stopped || paused)
+            throw SearchStopped.INSTANCE;
+        nodes++;
+        var state = (Board.GameState) rootState;
+        evaluator.enter(state, rootMrXLocation);
+        List<Move> moves = sortMoves(trimMoves(state, true), 0);
+        if (!losingRootMoves.isEmpty() && !losingRootMoves.containsAll(moves))
+            moves.removeAll(losingRootMoves);
+        if (planRounds > 0)
+            followPlan(state, moves);
+        if (multiPv > 1)
+            orderByLines(moves);
+        double[] leafScores = evaluateFrontier(state, moves, 0, rootMrXLocation);
+
+        List<SearchInfo.Line> found = new ArrayList<>(multiPv + 1);
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i);
+            double alpha = found.size() < multiPv ? Double.NEGATIVE_INFINITY : found.get(multiPv - 1).score;
+            double value = leafScores != null
+                    ? leafScores[i]
+                    : searchChild(state, move, alpha, Double.POSITIVE_INFINITY, 1, Evaluator.finalDestination(move));
+            if (found.size() < multiPv || value > alpha) {
+                var line = new SearchInfo.Line(move, value, rootLine(move, leafScores == null));
+                int rank = 0;
+                while (rank < found.size() && found.get(rank).score >= value)
+                    rank++;
+                found.add(rank, line);
+                if (found.size() > multiPv)
+                    found.remove(multiPv);
+                if (rank == 0) {
+                    best = new RootMove(move, currDepth, value);
+                    publish(SearchInfo.Kind.BEST_MOVE, ImmutableList.of(line));
+                }
+            }
+        }
+        updateKillerMoves(found.isEmpty() ? null : found.get(0).move, 0);
+        lines = ImmutableList.copyOf(found);
+        publish(SearchInfo.Kind.DEPTH, lines);
+    }
+
+    /**
+     * Keep only the root moves allowed by the {@link MapAbstraction.Plan} of the position, made on first use;
+     * all of them if it allows none
+     * The playout stops with the search, keeping the plan of the rounds it got through
+     * @param state root
+     * @param moves root moves
+     */
+    private void followPlan(Board.GameState state, List<Move> moves) {
+        if (plan == null)
+            plan = MapAbstraction.of(tables).plan(state, planRounds, () -> stopped || paused);
+        if (plan == null)
+            throw SearchStopped.INSTANCE;
+        if (moves.stream().anyMatch(plan::allows))
+            moves.removeIf(move -> !plan.allows(move));
+    }
+
+    /**
+     * Run a {@link ProofSearch} when a detective is close or the game is about to end
+     * It runs after the first iteration, so that a searched move is known even if the proof takes all the time left
+     * A proven win or loss settles the search: the winning move, or the best move so far since every move loses,
+     * is published with the depth completed before the proof; otherwise the root moves proven to lose aren't searched
+     * Its nodes are counted apart from the search's, see {@link #getProofNodeCount}
+     * @return whether the position was solved
+     */
+    private boolean solve() {
+        var state = (Board.GameState) rootState;
+        int roundsLeft = state.getSetup().rounds.size() - state.getMrXTravelLog().size();
+        if (proofBudget == 0 || !(checkIfUseDoubleMove(state, ThreatMap.of(tables, state)) || roundsLeft <= escapeRounds))
+            return false;
+        var proof = new ProofSearch(state, proofBudget, () -> stopped || paused);
+        var result = proof.solve();
+        proofNodes += proof.getNodes();
+        if (paused) {
+            proofTried = false;
+            throw SearchStopped.INSTANCE;
+        }
+        if (result == ProofSearch.Result.UNKNOWN) {
+            losingRootMoves = proof.getLosingMoves();
+            return false;
+        }
+        Move move = result == ProofSearch.Result.WIN ? proof.getWinningMove() : best.move;
+        double score = result == ProofSearch.Result.WIN ? Evaluator.WIN : Evaluator.LOSS;
+        solved = true;
+        best = new RootMove(move, getCompletedDepth(), score);
+        lines = ImmutableList.of(new SearchInfo.Line(move, score, ImmutableList.of(move)));
+        publish(SearchInfo.Kind.DEPTH, getCompletedDepth(), lines);
+        return true;
+    }
+
+    /**
+     * Move the previous iteration's lines to the front, in their order
+     * @param moves root moves
+     */
+    private void orderByLines(List<Move> moves) {
+        var previous = lines;
+        for (int i = previous.size() - 1; i >= 0; i--)
+            if (moves.remove(previous.get(i).move))
+                moves.add(0, previous.get(i).move);
+    }
+
+    /**
+     * @param move root move just searched
+     * @param searched whether its child was searched, rather than evaluated as a leaf
+     * @return principal variation starting with the move, with every move of the coalition's responses
+     */
+    private ImmutableList<Move> rootLine(Move move, boolean searched) {
+        var line = ImmutableList.<Move>builder().add(move);
+        if (searched)
+            for (int i = 1; i < pvLength[1]; i++) {
+                if (jointPv[1][i] != null)
+                    line.add(jointPv[1][i]);
+                else
+                    line.add(pv[1][i]);
+            }
+        return line.build();
+    }
+
+    /**
+     * Record that move leads the line from depth, followed by the child's line if the child was searched
+     * @param depth depth of the node the move is played from
+     * @param move move
+     * @param searched whether the child was searched, rather than evaluated as a leaf
+     */
+    private void updatePv(int depth, Move move, boolean searched) {
+        updatePv(depth, move, null, searched);
+    }
+
+    /**
+     * @param joint every move of the coalition's response led by the move, null for a single move
+     * @see #updatePv(int, Move, boolean)
+     */
+    private void updatePv(int depth, Move move, Move[] joint, boolean searched) {
+        pv[depth][depth] = move;
+        jointPv[depth][depth] = joint;
+        int length = searched ? pvLength[depth + 1] : depth + 1;
+        System.arraycopy(pv[depth + 1], depth + 1, pv[depth], depth + 1, length - depth - 1);
+        System.arraycopy(jointPv[depth + 1], depth + 1, jointPv[depth], depth + 1, length - depth - 1);
+        pvLength[depth] = length;
     }
 
     /**
@@ -73,18 +388,63 @@ public class Utils implements Iterator<Move> {
      * @param alpha max so far
      * @param beta min so far
      * @param depth current depth
+     * @param mrXLocation where MrX is in this state
      * @return max value for Maximizer and min value for Minimizer
      */
-    private double alphaBeta(Board state, double alpha, double beta, int depth) {
+    private double alphaBeta(Board state, double alpha, double beta, int depth, int mrXLocation) {
+        if (stopped || paused)
+            throw SearchStopped.INSTANCE;
+        nodes++;
+        pvLength[depth] = depth;
         if (depth == currDepth)
-            return evaluate(state);
+            return evaluator.evaluate(state, mrXLocation);
         if (!state.getWinner().isEmpty())
-            return isGameEnded(state);
+            return Evaluator.terminal(state);
 
         if (isMaximizer(state)) {
-            return executeMaximizer((Board.GameState) state, alpha, beta, depth);
-        } else
-            return executeMinimizer((Board.GameState) state, alpha, beta, depth);
+            return executeMaximizer((Board.GameState) state, alpha, beta, depth, mrXLocation);
+        } else if (coalitionWidth > 0)
+            return executeCoalition((Board.GameState) state, alpha, beta, depth, mrXLocation);
+        else
+            return executeMinimizer((Board.GameState) state, alpha, beta, depth, mrXLocation);
+    }
+
+    /**
+     * Search the child reached with the move, with the evaluator following the move
+     * @param state current state
+     * @param move move to the child
+     * @param alpha max so far
+     * @param beta min so far
+     * @param depth depth of the child
+     * @param mrXLocation where MrX is in the child
+     * @return value of the child
+     */
+    private double searchChild(Board.GameState state, Move move, double alpha, double beta, int depth, int mrXLocation) {
+        evaluator.make(move);
+        try {
+            return alphaBeta(state.advance(move), alpha, beta, depth, mrXLocation);
+        } finally {
+            evaluator.unmake();
+        }
+    }
+
+    /**
+     * Evaluate all children at once when they are leaves
+     * @param state current state
+     * @param moves moves to the children
+     * @param depth current depth
+     * @param mrXLocation where MrX is in this state
+     * @return scores of the children, or null if they aren't leaves
+     */
+    private double[] evaluateFrontier(Board.GameState state, List<Move> moves, int depth, int mrXLocation) {
+        if (depth + 1 != currDepth)
+            return null;
+        nodes += moves.size();
+        //leaves don't recurse, so a single buffer is enough
+        if (frontierScores.length < moves.size())
+            frontierScores = new double[Math.max(moves.size(), frontierScores.length * 2)];
+        evaluator.evaluateChildren(state, mrXLocation, moves, frontierScores);
+        return frontierScores;
     }
 
     /**
@@ -102,19 +462,26 @@ public class Utils implements Iterator<Move> {
      * @param alpha max so far
      * @param beta min so far
      * @param depth current depth
+     * @param mrXLocation where MrX is in this state
      * @return max value
      */
-    private double executeMaximizer(Board.GameState state, double alpha, double beta, int depth) {
+    private double executeMaximizer(Board.GameState state, double alpha, double beta, int depth, int mrXLocation) {
         List<Move> moves = sortMoves(trimMoves(state, true), depth);
+        double[] leafScores = evaluateFrontier(state, moves, depth, mrXLocation);
 
         Move bestMove = null;
         double val = Double.NEGATIVE_INFINITY;
-        for (Move move : moves) {
-            double temp = alphaBeta(state.advance(move), alpha, beta, depth + 1);
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i);
+            double temp = leafScores != null
+                    ? leafScores[i]
+                    : searchChild(state, move, alpha, beta, depth + 1, Evaluator.finalDestination(move));
             if (temp >= val) {
                 val = temp;
                 bestMove = move;
             }
+            if (temp > alpha)
+                updatePv(depth, move, leafScores == null);
             alpha = Math.max(val, alpha);
             if (beta <= alpha)
                 break;
@@ -129,19 +496,26 @@ public class Utils implements Iterator<Move> {
      * @param alpha max so far
      * @param beta min so far
      * @param depth current depth
+     * @param mrXLocation where MrX is in this state
      * @return min value
      */
-    private double executeMinimizer(Board.GameState state, double alpha, double beta, int depth) {
+    private double executeMinimizer(Board.GameState state, double alpha, double beta, int depth, int mrXLocation) {
         List<Move> moves = sortMoves(trimMoves(state, false), depth);
+        double[] leafScores = evaluateFrontier(state, moves, depth, mrXLocation);
 
         Move bestMove = null;
         double val = Double.POSITIVE_INFINITY;
-        for (Move move : moves) {
-            double temp = alphaBeta(state.advance(move), alpha, beta, depth + 1);
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i);
+            double temp = leafScores != null
+                    ? leafScores[i]
+                    : searchChild(state, move, alpha, beta, depth + 1, mrXLocation);
             if (temp <= val) {
                 val = temp;
                 bestMove = move;
             }
+            if (temp < beta)
+                updatePv(depth, move, leafScores == null);
             beta = Math.min(val, beta);
 
             if (beta <= alpha)
@@ -151,6 +525,270 @@ public class Utils implements Iterator<Move> {
         return beta;
     }
 
+    /**
+     * Execute the detectives' whole round as one Minimizer's layer of joint responses
+     * The principal variation records every move of the best joint response, the killer moves only its first,
+     * which bring the responses containing them to the front
+     * @param state current state, the first detective to move this round
+     * @param alpha max so far
+     * @param beta min so far
+     * @param depth current depth
+     * @param mrXLocation where MrX is in this state
+     * @return min value
+     */
+    private double executeCoalition(Board.GameState state, double alpha, double beta, int depth, int mrXLocation) {
+        var responses = sortResponses(jointResponses(state, mrXLocation), depth);
+        boolean leaves = depth + 1 == currDepth;
+        if (leaves)
+            nodes += responses.size();
+
+        Move bestMove = null;
+        double val = Double.POSITIVE_INFINITY;
+        for (JointResponse response : responses) {
+            int made = 0;
+            double temp;
+            try {
+                for (Move move : response.moves) {
+                    evaluator.make(move);
+                    made++;
+                }
+                temp = leaves
+                        ? evaluator.evaluate(response.state, mrXLocation)
+                        : alphaBeta(response.state, alpha, beta, depth + 1, mrXLocation);
+            } finally {
+                for (int i = 0; i < made; i++)
+                    evaluator.unmake();
+            }
+            if (temp <= val) {
+                val = temp;
+                bestMove = response.moves[0];
+            }
+            if (temp < beta)
+                updatePv(depth, response.moves[0], response.moves, !leaves);
+            beta = Math.min(val, beta);
+            if (beta <= alpha)
+                break;
+        }
+        updateKillerMoves(bestMove, depth);
+        return beta;
+    }
+
+    /**
+     * Move the joint responses containing a killer move of this depth to the front, keeping their order
+     * @param responses responses, strongest first
+     * @param depth current depth
+     * @return responses
+     */
+    private List<JointResponse> sortResponses(List<JointResponse> responses, int depth) {
+        if (!enableKillerMoves)
+            return responses;
+        var killers = Arrays.asList(killerMoves[depth]);
+        var sorted = new ArrayList<JointResponse>(responses.size());
+        for (JointResponse response : responses)
+            if (Arrays.stream(response.moves).anyMatch(killers::contains))
+                sorted.add(response);
+        for (JointResponse response : responses)
+            if (Arrays.stream(response.moves).noneMatch(killers::contains))
+                sorted.add(response);
+        return sorted;
+    }
+
+    /**
+     * Detectives' moves for a whole round and the position they lead to
+     */
+    private static final class JointResponse {
+        /** moves of the response, those after a capture aren't played */
+        final Move[] moves;
+        final Board.GameState state;
+
+        JointResponse(Move[] moves, Board.GameState state) {
+            this.moves = moves;
+            this.state = state;
+        }
+    }
+
+    /**
+     * A combination of one move per detective, before it's played
+     */
+    private static final class Combination {
+        final Move[] moves;
+        final boolean captures;
+        /** MrX's neighbours a detective stands on or next to */
+        final long threat;
+        /** detectives' locations MrX may be at, sorted */
+        final int[] seen;
+        final int distance;
+
+        Combination(Move[] moves, boolean captures, long threat, int[] seen, int distance) {
+            this.moves = moves;
+            this.captures = captures;
+            this.threat = threat;
+            this.seen = seen;
+            this.distance = distance;
+        }
+
+        boolean sameEffect(Combination other) {
+            return captures == other.captures && threat == other.threat && Arrays.equals(seen, other.seen);
+        }
+    }
+
+    private static final Comparator<Combination> strongestFirst = Comparator
+            .<Combination, Boolean>comparing(c -> !c.captures)
+            .thenComparing(c -> -Long.bitCount(c.threat))
+            .thenComparingInt(c -> -c.seen.length)
+            .thenComparingInt(c -> c.distance);
+
+    /**
+     * Joint responses of the detectives still to move this round, strongest first
+     * Each detective contributes its {@link #COALITION_MOVES_PER_DETECTIVE} moves closest to MrX, one per destination;
+     * combinations that change neither the threat on MrX's neighbours nor the detectives' locations within MrX's
+     * possible locations are dominated by doing nothing useful and dropped, as are all but the closest of
+     * combinations with the same effect; at most {@link #coalitionWidth} are then played
+     * @param state current state, detectives to move
+     * @param mrXLocation where MrX is in this state
+     * @return responses, never empty
+     */
+    private List<JointResponse> jointResponses(Board.GameState state, int mrXLocation) {
+        int[] distances = tables.distancesFrom(mrXLocation);
+        int[] escapes = tables.neighbours(mrXLocation);
+        var belief = tables.beliefs.lookup(state.getMrXTravelLog());
+
+        //candidate moves of each detective, and where the ones not moving stand
+        Map<Piece, Move[]> candidates = new LinkedHashMap<>();
+        for (Piece piece : state.getPlayers()) {
+            if (piece.isMrX())
+                continue;
+            var best = new HashMap<Integer, Move>();
+            for (Move move : state.getAvailableMoves()) {
+                if (move.commencedBy() != piece)
+                    continue;
+                int destination = Evaluator.finalDestination(move);
+                var previous = best.get(destination);
+                if (previous == null || ticketsLeft(state, move) > ticketsLeft(state, previous))
+                    best.put(destination, move);
+            }
+            if (!best.isEmpty())
+                candidates.put(piece, best.values().stream()
+                        .sorted(Comparator.comparingInt(move -> distances[Evaluator.finalDestination(move)]))
+                        .limit(COALITION_MOVES_PER_DETECTIVE)
+                        .toArray(Move[]::new));
+        }
+        var standing = new ArrayList<Integer>();
+        for (Piece.Detective detective : Piece.Detective.values())
+            if (!candidates.containsKey(detective))
+                state.getDetectiveLocation(detective).ifPresent(standing::add);
+
+        var pieces = new ArrayList<>(candidates.keySet());
+        var combinations = new ArrayList<Combination>();
+        var moves = new Move[pieces.size()];
+        combine(candidates, pieces, 0, moves, standing, distances, escapes, belief, mrXLocation, combinations);
+
+        var current = effect(null, state.getAvailableMoves().stream()
+                .map(Move::source).distinct().mapToInt(Integer::intValue).toArray(),
+                standing, distances, escapes, belief, mrXLocation);
+        combinations.sort(strongestFirst);
+        var kept = new ArrayList<Combination>();
+        for (Combination combination : combinations) {
+            if (kept.size() == coalitionWidth)
+                break;
+            if (combination.sameEffect(current) || kept.stream().anyMatch(combination::sameEffect))
+                continue;
+            kept.add(combination);
+        }
+        //every combination may have been dropped, or none found when the detectives can't all move apart
+        if (kept.isEmpty() && !combinations.isEmpty())
+            kept.add(combinations.get(0));
+
+        var responses = new ArrayList<JointResponse>(kept.size());
+        for (Combination combination : kept) {
+            var child = play(state, combination.moves);
+            if (child != null)
+                responses.add(new JointResponse(combination.moves, child));
+        }
+        if (responses.isEmpty()) {
+            Move move = trimMoves(state, false).getFirst();
+            responses.add(new JointResponse(new Move[]{move}, state.advance(move)));
+        }
+        return responses;
+    }
+
+    private void combine(Map<Piece, Move[]> candidates, List<Piece> pieces, int index, Move[] moves,
+                         List<Integer> standing, int[] distances, int[] escapes,
+                         @Nullable BeliefCache.Entry belief, int mrXLocation, List<Combination> out) {
+        if (index == pieces.size()) {
+            int[] locations = new int[moves.length];
+            for (int i = 0; i < moves.length; i++)
+                locations[i] = Evaluator.finalDestination(moves[i]);
+            out.add(effect(moves.clone(), locations, standing, distances, escapes, belief, mrXLocation));
+            return;
+        }
+        outer:
+        for (Move move : candidates.get(pieces.get(index))) {
+            int destination = Evaluator.finalDestination(move);
+            if (standing.contains(destination))
+                continue;
+            for (int i = 0; i < index; i++)
+                if (Evaluator.finalDestination(moves[i]) == destination)
+                    continue outer;
+            moves[index] = move;
+            combine(candidates, pieces, index + 1, moves, standing, distances, escapes, belief, mrXLocation, out);
+        }
+    }
+
+    private Combination effect(@Nullable Move[] moves, int[] locations, List<Integer> standing, int[] distances,
+                               int[] escapes, @Nullable BeliefCache.Entry belief, int mrXLocation) {
+        boolean captures = false;
+        long threat = 0;
+        int distance = 0;
+        int seenCount = 0;
+        int[] seen = new int[locations.length + standing.size()];
+        for (int i = 0; i < locations.length + standing.size(); i++) {
+            int location = i < locations.length ? locations[i] : standing.get(i - locations.length);
+            captures |= location == mrXLocation;
+            if (i < locations.length)
+                distance += Math.min(distances[location], tables.nodeCount);
+            if (belief != null && belief.contains(location))
+                seen[seenCount++] = location;
+            int[] around = tables.distancesFrom(location);
+            for (int e = 0; e < escapes.length && e < Long.SIZE; e++)
+                if (around[escapes[e]] <= 1)
+                    threat |= 1L << e;
+        }
+        seen = Arrays.copyOf(seen, seenCount);
+        Arrays.sort(seen);
+        return new Combination(moves, captures, threat, seen, distance);
+    }
+
+    /**
+     * Play the moves of a joint response, each detective after any other whose location it moves to
+     * @return position after the round, or after the capture; null if the moves can't all be played
+     */
+    @Nullable
+    private static Board.GameState play(Board.GameState state, Move[] moves) {
+        var left = new ArrayList<>(Arrays.asList(moves));
+        while (!left.isEmpty() && state.getWinner().isEmpty()) {
+            Move next = null;
+            for (Move move : left)
+                if (state.getAvailableMoves().contains(move)) {
+                    next = move;
+                    break;
+                }
+            if (next == null)
+                return null;
+            left.remove(next);
+            state = state.advance(next);
+        }
+        return state;
+    }
+
+    private static int ticketsLeft(Board.GameState state, Move move) {
+        var tickets = state.getPlayerTickets(move.commencedBy()).orElseThrow();
+        int least = Integer.MAX_VALUE;
+        for (ScotlandYard.Ticket ticket : move.tickets())
+            least = Math.min(least, tickets.getCount(ticket));
+        return least;
+    }
+
     /**
      * Add killer moves to the moves set
      * @param moves moves
@@ -182,7 +820,7 @@ public class Utils implements Iterator<Move> {
     /**
      * Trim available moves
      * For detectives, return only set of moves commenced by one detective
-     * For MrX, filter moves
+     * For MrX, filter moves, collapse equivalent ones and put the ones a detective can't reach next turn first
      * @param state current state
      * @param isMaximizer is maximizer
      * @return moves
@@ -192,7 +830,10 @@ public class Utils implements Iterator<Move> {
         var list = state.getAvailableMoves().asList();
         Piece p = list.get(0).commencedBy();
         if (isMaximizer) {
-            filterMoves(state, newList, list);
+            var threats = ThreatMap.of(tables, state);
+            filterMoves(state, threats, newList, list);
+            collapseEquivalentMoves(state, newList);
+            safeFirst(threats, newList);
         } else {
             for (Move move : list) {
                 if (move.commencedBy() != p)
@@ -215,12 +856,13 @@ public class Utils implements Iterator<Move> {
      * - use it to escape
      * - when next single move is pretty risky
      * @param state current state
+     * @param threats threat map of the state
      * @param newList new list
      * @param list all available moves
      */
-    private void filterMoves(Board.GameState state, LinkedList<Move> newList, List<Move> list) {
+    private void filterMoves(Board.GameState state, ThreatMap threats, LinkedList<Move> newList, List<Move> list) {
         boolean useBlack = checkIfUseBlackTicket(state);
-        boolean useDouble = checkIfUseDoubleMove(state);
+        boolean useDouble = checkIfUseDoubleMove(state, threats);
         for (Move move : list) {
             if (move instanceof Move.DoubleMove && useDouble) {
                 Move.DoubleMove dm = (Move.DoubleMove) move;
@@ -242,6 +884,78 @@ public class Utils implements Iterator<Move> {
         }
     }
 
+    /**
+     * Keep one move of each group of {@link #equivalentMoves}, the one with the cheapest tickets
+     * @param state current state, MrX to move
+     * @param moves moves, collapsed in place keeping the position of each group's first move
+     */
+    private void collapseEquivalentMoves(Board.GameState state, LinkedList<Move> moves) {
+        var groups = equivalentMoves(state, moves);
+        if (groups.size() == moves.size())
+            return;
+        moves.clear();
+        for (List<Move> group : groups)
+            moves.add(group.stream().reduce((kept, other) -> ticketCost(other) < ticketCost(kept) ? other : kept)
+                    .orElseThrow());
+    }
+
+    /**
+     * Group MrX's moves leading to the same position as far as the detectives can tell:
+     * same final node, same single or double move, and the same belief set afterwards
+     * A belief set only depends on the last revealed node and the tickets used since, so tickets of legs that are
+     * revealed, followed by a reveal or made before the first reveal are left out: e.g. double moves through
+     * different hidden middle nodes, or a secret move in a reveal round next to its ordinary twin, are grouped,
+     * while double moves revealed at different middle nodes aren't
+     * @param state current state, MrX to move
+     * @param moves MrX's moves
+     * @return groups in the order of their first move
+     */
+    static Collection<List<Move>> equivalentMoves(Board.GameState state, Collection<Move> moves) {
+        var rounds = state.getSetup().rounds;
+        int round = state.getMrXTravelLog().size();
+        boolean revealedBefore = rounds.subList(0, Math.min(round, rounds.size())).contains(true);
+        var groups = new LinkedHashMap<Long, List<Move>>();
+        for (Move move : moves)
+            groups.computeIfAbsent(equivalenceKey(rounds, round, revealedBefore, move), key -> new ArrayList<>())
+                    .add(move);
+        return groups.values();
+    }
+
+    /**
+     * Key layout: bits 0-16 final node, bit 17 double move, bits 18-19 what follows: 0 nothing,
+     * 1 one ticket in bits 20-22 and for a double move the middle node in bits 26-42, 2 two tickets in bits 20-25
+     */
+    private static long equivalenceKey(List<Boolean> rounds, int round, boolean revealedBefore, Move move) {
+        int nodeBits = BeliefCache.NODE_BITS;
+        long key = Evaluator.finalDestination(move);
+        if (move instanceof Move.DoubleMove) {
+            var dm = (Move.DoubleMove) move;
+            key |= 1L << nodeBits;
+            if (round + 1 < rounds.size() && !rounds.get(round + 1)) {
+                //belief set: reveal(middle) extended by ticket2, or the one before extended by both tickets
+                if (rounds.get(round))
+                    key |= 1L << (nodeBits + 1) | (long) dm.ticket2.ordinal() << (nodeBits + 3)
+                            | (long) dm.destination1 << (nodeBits + 9);
+                else if (revealedBefore)
+                    key |= 2L << (nodeBits + 1) | (long) dm.ticket1.ordinal() << (nodeBits + 3)
+                            | (long) dm.ticket2.ordinal() << (nodeBits + 6);
+            }
+        } else if (revealedBefore && round < rounds.size() && !rounds.get(round)) {
+            key |= 1L << (nodeBits + 1) | (long) ((Move.SingleMove) move).ticket.ordinal() << (nodeBits + 3);
+        }
+        return key;
+    }
+
+    /**
+     * @return cost of the tickets of a move, secret tickets the dearest
+     */
+    private static int ticketCost(Move move) {
+        int cost = 0;
+        for (ScotlandYard.Ticket ticket : move.tickets())
+            cost += ticket == ScotlandYard.Ticket.SECRET ? 8 : ticket == ScotlandYard.Ticket.DOUBLE ? 0 : ticket.ordinal() + 1;
+        return cost;
+    }
+
     /**
      * Use it when the |L| is low, so basically right after reveal round
      * - do not use in following situations
@@ -267,21 +981,24 @@ public class Utils implements Iterator<Move> {
     /**
      * For double ticket:
      * - use it to escape
-     * - when next single move is pretty risky
+     * - when next single move is pretty risky, i.e. a detective can be at MrX's node within two turns
      * @param state current state
+     * @param threats threat map of the state
      * @return t/f
      */
-    private boolean checkIfUseDoubleMove(Board.GameState state) {
-        Move move = state.getAvailableMoves().asList().get(0);
-        int mrXLocation = move.source();
-        PathFinder<ImmutableSet<ScotlandYard.Transport>>
-                finder = new PathFinder<>(state.getSetup().graph, mrXLocation);
+    private boolean checkIfUseDoubleMove(Board.GameState state, ThreatMap threats) {
+        return threats.isThreatened(state.getAvailableMoves().asList().get(0).source(), 2);
+    }
 
-        for (int pos : getDetectiveLocations(state)) {
-            if (finder.calculateDistance(pos) < 3)
-                return true;
-        }
-        return false;
+    /**
+     * Move the moves to destinations a detective can reach next turn after the others, keeping their order
+     * @param threats threat map of the state
+     * @param moves MrX's moves, reordered in place
+     */
+    private static void safeFirst(ThreatMap threats, LinkedList<Move> moves) {
+        var unsafe = new ArrayList<Move>();
+        moves.removeIf(move -> !threats.isSafe(move) && unsafe.add(move));
+        moves.addAll(unsafe);
     }
 
     /**
@@ -299,92 +1016,22 @@ public class Utils implements Iterator<Move> {
         killerMoves[depth][0] = bestMove;
     }
 
-    /**
-     * Check if game is ended
-     * @param board current board
-     * @return t/f
-     */
-    private double isGameEnded(Board board) {
-        var winners = board.getWinner();
-        if (winners.contains(Piece.MrX.MRX))
-            return 0;
-        else
-            return Double.POSITIVE_INFINITY;
-    }
-
-    /**
-     * Evaluation(state) =
-     *        min(distance(MrX, detective))
-     *      + sum(distance(MrX, detective)) / 100
-     *      + #MrXSecreteTickets / 10
-     *      + possibleLocationOfMrX / 100
-     * Credit to @see https://dke.maastrichtuniversity.nl/m.winands/documents/TCAIG_ScotlandYard.pdf [Section V-C]
-     * and @see https://incoherency.co.uk/blog/stories/scotland-yard.html
-     * @param state current state
-     * @return value
-     */
-    private int evaluate(Board state) {
-        var availableMoves = state.getAvailableMoves();
-        if (!availableMoves.isEmpty()) {
-            var move = availableMoves.iterator().next();
-            PathFinder<ImmutableSet<ScotlandYard.Transport>> finder = new PathFinder<>(state.getSetup().graph, move.source());
-            int sum = 0;
-            int min = Integer.MAX_VALUE;
-            for (Piece player : Piece.Detective.values()) {
-                int val = finder.calculateDistance(
-                        state.getDetectiveLocation( (Piece.Detective) player ).get() //detective's location
-                );
-                if (min >= val)
-                    min = val;
-                sum += val;
-            }
-
-            return min
-                    + countMrXSecretTickets(state) /10
-                    + sum / 100
-                    + calculatePossibleLocations(state) / 100;
-        }
-        return 0;
-    }
-
-    /**
-     * Count MrX's Secret tickets
-     * @param state current state
-     * @return count
-     */
-    private int countMrXSecretTickets(Board state) {
-        return state.getPlayerTickets(Piece.MrX.MRX).get().getCount(ScotlandYard.Ticket.SECRET);
-    }
-
     /**
      * Calculate possible locations when MrX can be
-     * return 200 if not position revealed yet
+     * return the number of nodes if not position revealed yet
+     * The set itself comes from the map's {@link BeliefCache}
      * @param state current state
      * @return count
      */
     private int calculatePossibleLocations(Board state) {
-        Set<Integer> possibleLocations = new HashSet<>();
-        var log = state.getMrXTravelLog();
-        //get the closest reveal round
-        int revealRound = -1;
-        for (Integer round : revealRounds)
-            if (round < log.size())
-                revealRound = round;    //closest reveal round
-        //if no position has been revealed yet
-        if (revealRound == -1)
-            return 200; //cuz there are 200 position in total
-        //else add the revealed location
-        possibleLocations.add(
-                log.get(revealRound).location().get());
-
-        //for each following round
-        for (int i = revealRound + 1; i < log.size(); i++) {
-            //get the transport used by MrX and update
-            ScotlandYard.Transport usedTransport = getCorrespondingTransport(log.get(i).ticket());
-            possibleLocations = updatePossibleLocations(possibleLocations, usedTransport);
-        }
-        possibleLocations.removeAll(getDetectiveLocations(state));
-        return possibleLocations.size();
+        var belief = tables.beliefs.lookup(state.getMrXTravelLog());
+        if (belief == null)
+            return tables.nodeCount;
+        int count = belief.size;
+        for (int location : getDetectiveLocations(state))
+            if (belief.contains(location))
+                count--;
+        return count;
     }
 
     /**
@@ -399,41 +1046,13 @@ public class Utils implements Iterator<Move> {
                 .collect(Collectors.toSet());
     }
 
-    /**
-     * expand the set of locations with the given transport
-     * For each old location in the set, we add neighbours that can be reached with the given transport
-     * @param oldLocations set of locations
-     * @param usedTransport transport used by MrX, null if MrX's used a secret ticket
-     * @return new locations
-     */
-    private Set<Integer> updatePossibleLocations(Set<Integer> oldLocations, @Nullable ScotlandYard.Transport usedTransport) {
-        var temp = new HashSet<Integer>();
-        //add every possible new location to temp
-        oldLocations.forEach(from -> {
-            var nodes = graph.adjacentNodes(from);
-            if (usedTransport == null) //if its a secret ticket
-                temp.addAll(nodes);
-            else {
-                for (Integer toNode : nodes) {
-                    if (graph.edgeValue(from, toNode)
-                            .get()
-                            .stream()
-                            .anyMatch(transport -> transport == usedTransport)) {
-                        temp.add(toNode);
-                    }
-                }
-            }
-        });
-        //update possible locations
-        return temp;
-    }
-
     /**
      * Map ticket to the corresponding transport
      * @param ticket t
-     * @return transport
+     * @return transport, null for secret (and double) tickets
      */
-    private ScotlandYard.Transport getCorrespondingTransport(ScotlandYard.Ticket ticket) {
+    @Nullable
+    static ScotlandYard.Transport getCorrespondingTransport(ScotlandYard.Ticket ticket) {
         switch (ticket) {
             case TAXI:
                 return ScotlandYard.Transport.TAXI;
@@ -452,20 +1071,63 @@ public class Utils implements Iterator<Move> {
      */
     @Override
     public boolean hasNext() {
-        return currDepth != maxDepth + 1;
+        return !stopped && !solved && currDepth != maxDepth + 1;
     }
 
     /**
      * get the new best move
+     * If the search is stopped or paused midway, the moves published by the unfinished iteration are kept
      * @return move
      */
     @Override
     public Move next() {
-        alphaBeta(rootState, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0);
-        currDepth++;
+        paused = false;
+        try {
+            if (!proofTried && currDepth > 1) {
+                proofTried = true;
+                if (solve())
+                    return finish();
+            }
+            searchRoot();
+            currDepth++;
+        } catch (SearchStopped e) {
+            //keep what the iteration has published
+        }
+        return finish();
+    }
+
+    private Move finish() {
+        var publisher = this.publisher;
+        if (publisher != null && !hasNext())
+            publisher.close();
         return getBestMove();
     }
 
+    /**
+     * Positions visited so far, every child evaluated at the frontier counts as one
+     * Only meaningful on the searching thread
+     * @return count
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Nodes created by the {@link ProofSearch} of critical positions, not included in {@link #getNodeCount}
+     * @return count
+     */
+    public long getProofNodeCount() {
+        return proofNodes;
+    }
+
+    /**
+     * Deepest iteration completed so far, 0 if none
+     * @return depth
+     */
+    public int getCompletedDepth() {
+        return currDepth - 1;
+    }
+
     /**
      *
      * @return
@@ -475,6 +1137,78 @@ public class Utils implements Iterator<Move> {
         return this;
     }
 
+    /**
+     * Use the given evaluation weights instead of {@link EvaluationWeights#DEFAULT}
+     * @param weights weights
+     * @return this
+     */
+    public Utils withWeights(EvaluationWeights weights) {
+        this.evaluator = new DefaultEvaluator(tables, rootState.getSetup().rounds, weights);
+        return this;
+    }
+
+    /**
+     * Use the given evaluator instead of {@link DefaultEvaluator}
+     * @param evaluator evaluator, only used by this search
+     * @return this
+     */
+    public Utils withEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+        return this;
+    }
+
+    /**
+     * Search the given number of best root moves exactly instead of only the best one,
+     * see {@link #getLines} and {@link #analysis}
+     * @param lines number of lines, at least 1
+     * @return this
+     */
+    public Utils withMultiPv(int lines) {
+        if (lines < 1)
+            throw new IllegalArgumentException("At least one line is needed, got " + lines);
+        this.multiPv = lines;
+        return this;
+    }
+
+    /**
+     * Run a {@link ProofSearch} of critical positions that may create the given number of nodes,
+     * e.g. {@link ProofSearch#DEFAULT_BUDGET}; off by default so that fixed depth searches only do the search
+     * @param nodes budget, 0 to never run it
+     * @return this
+     */
+    public Utils withProofBudget(int nodes) {
+        this.proofBudget = nodes;
+        return this;
+    }
+
+    /**
+     * Search each round of the detectives as a single Minimizer's layer of at most the given number of joint
+     * responses instead of one layer per detective, so the same depth looks several of MrX's moves further
+     * Joint responses are pruned heuristically, the detectives' best reply may be missed
+     * @param width joint responses searched per round, 0 for one layer per detective
+     * @return this
+     */
+    public Utils withCoalition(int width) {
+        if (width < 0)
+            throw new IllegalArgumentException("Width can't be negative, got " + width);
+        this.coalitionWidth = width;
+        return this;
+    }
+
+    /**
+     * Look the given number of MrX's rounds ahead on the regions of the map first, see {@link MapAbstraction#plan},
+     * and only search the root moves heading where that playout says he should go
+     * The playout is coarse, the best concrete move may be left out
+     * @param rounds rounds played out, 0 to search every root move
+     * @return this
+     */
+    public Utils withPlan(int rounds) {
+        if (rounds < 0)
+            throw new IllegalArgumentException("Rounds can't be negative, got " + rounds);
+        this.planRounds = rounds;
+        return this;
+    }
+
     /**
      * Disable killer moves
      * @return
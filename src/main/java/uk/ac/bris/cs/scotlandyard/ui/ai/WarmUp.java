@@ -0,0 +1,96 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+/**
+ * Warms the engine up before the first real move
+ * Builds the tables of the standard map and searches a few representative positions on a {@link SearchHost},
+ * made by the same factory as the real searches, so that the code pickMove runs is already JIT-compiled
+ * when it is called for the first time; the host's watchdog stops the searches at the end of the budget
+ * Only the first call in a JVM does any work
+ */
+public final class WarmUp {
+    private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+    private static final AtomicBoolean done = new AtomicBoolean(false);
+
+    /** MrX's location followed by the detectives' locations, taken from the benchmark positions */
+    private static final int[][] positions = {
+            {106, 123, 94, 26, 50, 155},
+            {45, 123, 138, 112, 53, 117},
+            {149, 94, 79, 93, 197, 173},
+            {8, 185, 192, 29, 54, 131},
+            {88, 60, 14, 82, 165, 35},
+    };
+
+    private final long budgetMillis;
+    private final SearchHost host;
+    private final Function<Board, Utils> searches;
+
+    /**
+     * @param budgetMillis time we can spend, tables included
+     * @param host host the real searches run on
+     * @param searches makes a search of a position the way the real searches are made
+     */
+    public WarmUp(long budgetMillis, SearchHost host, Function<Board, Utils> searches) {
+        this.budgetMillis = budgetMillis;
+        this.host = host;
+        this.searches = searches;
+    }
+
+    /**
+     * Run the warm-up once per JVM
+     * @return time spent in milliseconds, 0 if the engine was already warm
+     */
+    public long run() {
+        if (!done.compareAndSet(false, true))
+            return 0;
+        long start = System.currentTimeMillis();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        try {
+            var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+            MapTables.of(setup.graph).precompute();
+            long tablesDone = System.currentTimeMillis();
+
+            var results = new ArrayList<CompletableFuture<Utils.RootMove>>();
+            if (System.nanoTime() < deadline)
+                for (Board.GameState state : generateStates(setup))
+                    results.add(host.submit(searches.apply(state), deadline));
+            int deepest = 0;
+            for (var result : results)
+                deepest = Math.max(deepest, result.join().depth);
+            long elapsed = System.currentTimeMillis() - start;
+            logger.info("Warm-up took {} ms (tables {} ms, {} positions searched, deepest iteration {})",
+                    elapsed, tablesDone - start, results.size(), deepest);
+            return elapsed;
+        } catch (IOException e) {
+            logger.warn("Warm-up skipped, standard map could not be read", e);
+            return System.currentTimeMillis() - start;
+        }
+    }
+
+    private List<Board.GameState> generateStates(GameSetup setup) {
+        var states = new ArrayList<Board.GameState>();
+        for (int[] position : positions) {
+            var detectives = new ArrayList<Player>();
+            int i = 1;
+            for (Piece detective : DETECTIVES)
+                detectives.add(new Player(detective, defaultDetectiveTickets(), position[i++]));
+            Player mrX = new Player(Piece.MrX.MRX, defaultMrXTickets(), position[0]);
+            states.add(MyGameStateFactory.a(setup, mrX, ImmutableList.copyOf(detectives)));
+        }
+        return states;
+    }
+}
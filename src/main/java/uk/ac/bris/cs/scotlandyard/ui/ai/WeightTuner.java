@@ -0,0 +1,316 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Tunes {@link EvaluationWeights} on recorded games
+ * Every position where MrX is about to move (except his first move) becomes a sample labelled with the game's outcome.
+ * Features are extracted in parallel straight from the memory-mapped records into one flat array,
+ * then a logistic model P(MrX wins) = sigmoid(bias + w . features) is fitted with mini-batch gradient descent
+ * on standardised features and converted back to raw weights for the evaluator (the bias is dropped)
+ * Usage: WeightTuner output-file record-file...
+ */
+public final class WeightTuner {
+    private static final Logger logger = LoggerFactory.getLogger(WeightTuner.class);
+    private static final int F = EvaluationWeights.FEATURE_COUNT;
+    private static final int RECORDS_PER_TASK = 4096;
+    private static final int SAMPLES_PER_SLICE = 1024;
+
+    private final MapTables tables;
+    private final int mapId;
+    private final int epochs;
+    private final int batchSize;
+    private final double learningRate;
+    private final long seed;
+
+    private float[] features = new float[0];
+    private byte[] labels = new byte[0];
+    private int sampleCount;
+    private double lastLoss = Double.NaN;
+
+    /**
+     * @param tables tables of the map the games were played on
+     * @param mapId id of that map in the records, records of other maps are skipped
+     * @param epochs passes over the samples
+     * @param batchSize samples per gradient step
+     * @param learningRate step size on standardised features
+     * @param seed seed of the shuffling
+     */
+    public WeightTuner(MapTables tables, int mapId, int epochs, int batchSize, double learningRate, long seed) {
+        this.tables = tables;
+        this.mapId = mapId;
+        this.epochs = epochs;
+        this.batchSize = batchSize;
+        this.learningRate = learningRate;
+        this.seed = seed;
+    }
+
+    /**
+     * @return number of samples loaded so far
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return mean logistic loss after the last epoch of {@link #tune}
+     */
+    public double getLastLoss() {
+        return lastLoss;
+    }
+
+    /**
+     * Extract the samples of every finished game in the file
+     * A sequential scan collects record offsets, the extraction itself runs on the common fork-join pool
+     * @param reader records
+     * @return number of samples added
+     */
+    public int load(GameRecordReader reader) {
+        int[] offsets = new int[1024];
+        int[] firstSample = new int[1024];
+        int records = 0;
+        int added = 0;
+        reader.rewind();
+        while (reader.nextRecord()) {
+            if (reader.mapId() != mapId || reader.winner() == GameRecord.Winner.NONE)
+                continue;
+            int samples = countSamples(reader);
+            if (samples == 0)
+                continue;
+            if (records == offsets.length) {
+                offsets = Arrays.copyOf(offsets, records * 2);
+                firstSample = Arrays.copyOf(firstSample, records * 2);
+            }
+            offsets[records] = reader.position();
+            firstSample[records] = sampleCount + added;
+            added += samples;
+            records++;
+        }
+
+        features = Arrays.copyOf(features, (sampleCount + added) * F);
+        labels = Arrays.copyOf(labels, sampleCount + added);
+        int[] recordOffsets = offsets, recordSamples = firstSample;
+        int recordCount = records;
+        IntStream.range(0, (records + RECORDS_PER_TASK - 1) / RECORDS_PER_TASK).parallel().forEach(task -> {
+            var cursor = reader.duplicate();
+            var extractor = new Extractor();
+            int end = Math.min(recordCount, (task + 1) * RECORDS_PER_TASK);
+            for (int r = task * RECORDS_PER_TASK; r < end; r++) {
+                cursor.seek(recordOffsets[r]);
+                cursor.nextRecord();
+                extractor.extract(cursor, recordSamples[r]);
+            }
+        });
+        sampleCount += added;
+        return added;
+    }
+
+    /**
+     * @param reader positioned on a record
+     * @return number of MrX moves after the first one
+     */
+    private static int countSamples(GameRecordReader reader) {
+        int mrXMoves = 0;
+        while (reader.nextMove())
+            if (reader.isMrX())
+                mrXMoves++;
+        reader.rewindMoves();
+        return Math.max(0, mrXMoves - 1);
+    }
+
+    /**
+     * Fit the weights on the loaded samples
+     * @return tuned weights
+     */
+    public EvaluationWeights tune() {
+        if (sampleCount == 0)
+            throw new IllegalStateException("No samples loaded");
+        double[] mean = new double[F];
+        double[] scale = new double[F];
+        for (int i = 0; i < sampleCount; i++)
+            for (int f = 0; f < F; f++)
+                mean[f] += features[i * F + f];
+        for (int f = 0; f < F; f++)
+            mean[f] /= sampleCount;
+        for (int i = 0; i < sampleCount; i++)
+            for (int f = 0; f < F; f++) {
+                double d = features[i * F + f] - mean[f];
+                scale[f] += d * d;
+            }
+        for (int f = 0; f < F; f++) {
+            double std = Math.sqrt(scale[f] / sampleCount);
+            scale[f] = std > 1e-9 ? 1 / std : 0;     // constant features get no weight
+        }
+
+        double[] w = new double[F + 1];   // standardised weights, bias last
+        int[] order = IntStream.range(0, sampleCount).toArray();
+        var random = new Random(seed);
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            for (int i = sampleCount - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+            for (int start = 0; start < sampleCount; start += batchSize) {
+                double[] gradient = gradient(order, start, Math.min(sampleCount, start + batchSize), w, mean, scale);
+                for (int f = 0; f <= F; f++)
+                    w[f] -= learningRate * gradient[f];
+            }
+            lastLoss = loss(w, mean, scale);
+            logger.info("Epoch {}: loss {}", epoch + 1, lastLoss);
+        }
+
+        double[] raw = new double[F];
+        for (int f = 0; f < F; f++)
+            raw[f] = w[f] * scale[f];
+        return new EvaluationWeights(raw);
+    }
+
+    private double[] gradient(int[] order, int from, int to, double[] w, double[] mean, double[] scale) {
+        int slices = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), (to - from) / SAMPLES_PER_SLICE));
+        double[][] partial = new double[slices][F + 1];
+        IntStream.range(0, slices).parallel().forEach(s -> {
+            double[] g = partial[s];
+            int end = from + (int) ((long) (to - from) * (s + 1) / slices);
+            for (int k = from + (int) ((long) (to - from) * s / slices); k < end; k++) {
+                int i = order[k];
+                double error = predict(i, w, mean, scale) - labels[i];
+                for (int f = 0; f < F; f++)
+                    g[f] += error * (features[i * F + f] - mean[f]) * scale[f];
+                g[F] += error;
+            }
+        });
+        double[] gradient = new double[F + 1];
+        for (double[] g : partial)
+            for (int f = 0; f <= F; f++)
+                gradient[f] += g[f] / (to - from);
+        return gradient;
+    }
+
+    private double loss(double[] w, double[] mean, double[] scale) {
+        return IntStream.range(0, sampleCount).parallel().mapToDouble(i -> {
+            double p = Math.min(Math.max(predict(i, w, mean, scale), 1e-12), 1 - 1e-12);
+            return labels[i] == 1 ? -Math.log(p) : -Math.log(1 - p);
+        }).sum() / sampleCount;
+    }
+
+    private double predict(int sample, double[] w, double[] mean, double[] scale) {
+        double z = w[F];
+        for (int f = 0; f < F; f++)
+            z += w[f] * (features[sample * F + f] - mean[f]) * scale[f];
+        return 1 / (1 + Math.exp(-z));
+    }
+
+    /**
+     * Replays one record at a time, reusing its buffers
+     */
+    private final class Extractor {
+        private final int[] locations = new int[GameRecord.MAX_PLAYERS];
+        private long[] belief = tables.newNodeSet();
+        private long[] next = tables.newNodeSet();
+        private boolean revealed;
+
+        void extract(GameRecordReader record, int sample) {
+            byte label = (byte) (record.winner() == GameRecord.Winner.MRX ? 1 : 0);
+            int players = record.playerCount();
+            for (int i = 0; i < players; i++)
+                locations[i] = record.startLocation(i);
+            revealed = false;
+            int initialSecretTickets = record.ticketCount(0, ScotlandYard.Ticket.SECRET);
+            int secretUsed = 0;
+            boolean first = true;
+            while (record.nextMove()) {
+                if (record.isMrX()) {
+                    if (!first)
+                        write(sample++, players, initialSecretTickets - secretUsed, label);
+                    first = false;
+                    step(record.ticket1(), record.destination1(), record.revealed1());
+                    if (record.ticket1() == ScotlandYard.Ticket.SECRET)
+                        secretUsed++;
+                    if (record.isDouble()) {
+                        step(record.ticket2(), record.destination2(), record.revealed2());
+                        if (record.ticket2() == ScotlandYard.Ticket.SECRET)
+                            secretUsed++;
+                    }
+                }
+                locations[record.player()] = record.destination();
+            }
+        }
+
+        private void step(ScotlandYard.Ticket ticket, int destination, boolean reveal) {
+            if (reveal) {
+                Arrays.fill(belief, 0);
+                belief[destination >>> 6] |= 1L << destination;
+                revealed = true;
+            } else if (revealed) {
+                tables.propagate(belief, Utils.getCorrespondingTransport(ticket), next);
+                long[] t = belief;
+                belief = next;
+                next = t;
+            }
+        }
+
+        private void write(int sample, int players, int secretTickets, byte label) {
+            int[] distances = tables.distancesFrom(locations[0]);
+            int min = Integer.MAX_VALUE;
+            int sum = 0;
+            for (int i = 1; i < players; i++) {
+                min = Math.min(min, distances[locations[i]]);
+                sum += distances[locations[i]];
+            }
+            int possible = tables.nodeCount;
+            if (revealed) {
+                possible = 0;
+                for (long word : belief)
+                    possible += Long.bitCount(word);
+                for (int i = 1; i < players; i++)
+                    if ((belief[locations[i] >>> 6] & 1L << locations[i]) != 0)
+                        possible--;
+            }
+            int offset = sample * F;
+            features[offset + EvaluationWeights.MIN_DISTANCE] = min;
+            features[offset + EvaluationWeights.SUM_DISTANCE] = sum;
+            features[offset + EvaluationWeights.SECRET_TICKETS] = secretTickets;
+            features[offset + EvaluationWeights.POSSIBLE_LOCATIONS] = possible;
+            labels[sample] = label;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: WeightTuner output-file record-file...");
+            System.exit(1);
+        }
+        var tuner = new WeightTuner(MapTables.of(ScotlandYard.standardGraph()), GameRecord.STANDARD_MAP,
+                Integer.getInteger("scotlandyard.tuner.epochs", 20),
+                Integer.getInteger("scotlandyard.tuner.batch", 4096),
+                Double.parseDouble(System.getProperty("scotlandyard.tuner.rate", "0.5")),
+                Long.getLong("scotlandyard.tuner.seed", 0));
+        long start = System.currentTimeMillis();
+        for (int i = 1; i < args.length; i++) {
+            try (var reader = GameRecordReader.open(Paths.get(args[i]))) {
+                logger.info("Loaded {} samples from {}", tuner.load(reader), args[i]);
+            }
+        }
+        long loaded = System.currentTimeMillis();
+        var weights = tuner.tune();
+        long tuned = System.currentTimeMillis();
+        logger.info("Tuned {} on {} samples (extraction {} ms, descent {} ms)",
+                weights, tuner.getSampleCount(), loaded - start, tuned - loaded);
+        Path output = Paths.get(args[0]);
+        weights.save(output, String.format(Locale.ROOT, "tuned on %d samples, loss %.6f",
+                tuner.getSampleCount(), tuner.getLastLoss()));
+    }
+}
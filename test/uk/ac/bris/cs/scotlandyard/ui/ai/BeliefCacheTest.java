@@ -0,0 +1,53 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class BeliefCacheTest {
+    @Test
+    void testLookupMatchesReplay() throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var tables = MapTables.of(setup.graph);
+
+        RandomGames.forEachPosition(setup, 5, 20, (state, mrX, next) -> {
+            var log = state.getMrXTravelLog();
+            var expected = replay(tables, log);
+            var entry = tables.beliefs.lookup(log);
+            if (expected == null) {
+                assertNull(entry);
+            } else {
+                assertEquals(expected.size(), entry.size);
+                for (int node : expected)
+                    assertTrue(entry.contains(node));
+            }
+        });
+        assertTrue(tables.beliefs.getHits() > 0);
+    }
+
+    private static Set<Integer> replay(MapTables tables, List<LogEntry> log) {
+        int reveal = log.size() - 1;
+        while (reveal >= 0 && log.get(reveal).location().isEmpty())
+            reveal--;
+        if (reveal < 0)
+            return null;
+        Set<Integer> locations = Set.of(log.get(reveal).location().get());
+        for (int i = reveal + 1; i < log.size(); i++) {
+            var transport = Utils.getCorrespondingTransport(log.get(i).ticket());
+            Set<Integer> next = new HashSet<>();
+            for (int from : locations)
+                for (int to : tables.graph.adjacentNodes(from))
+                    if (transport == null || tables.graph.edgeValue(from, to).get().contains(transport))
+                        next.add(to);
+            locations = next;
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,68 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class DefaultEvaluatorTest {
+    @Test
+    void testBatchMatchesSingleEvaluation() throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var evaluator = new DefaultEvaluator(MapTables.of(setup.graph), setup.rounds, EvaluationWeights.DEFAULT);
+        Evaluator single = evaluator::evaluate;
+
+        RandomGames.forEachPosition(setup, 3, 50, (state, mrX, next) -> {
+            List<Move> moves = state.getAvailableMoves().stream()
+                    .filter(move -> move.commencedBy() == next.commencedBy())
+                    .collect(Collectors.toList());
+            double[] batch = new double[moves.size()];
+            double[] expected = new double[moves.size()];
+            evaluator.evaluateChildren(state, mrX, moves, batch);
+            single.evaluateChildren(state, mrX, moves, expected);
+            for (int i = 0; i < moves.size(); i++)
+                assertEquals(expected[i], batch[i], 1e-9, moves.get(i).toString());
+        });
+    }
+
+    @Test
+    void testFollowingTheSearchedPathMatchesReadingTheBoard() throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var tables = MapTables.of(setup.graph);
+        var followed = new DefaultEvaluator(tables, setup.rounds, EvaluationWeights.DEFAULT);
+        var fresh = new DefaultEvaluator(tables, setup.rounds, EvaluationWeights.DEFAULT);
+        var random = new Random(4);
+
+        for (int game = 0; game < 30; game++) {
+            Board.GameState root = RandomGames.start(setup);
+            int rootMrX = RandomGames.START[0];
+            followed.enter(root, rootMrX);
+            Board.GameState state = root;
+            int mrX = rootMrX;
+            var path = RandomGames.play(setup, random);
+            for (Move move : path) {
+                assertEquals(fresh.evaluate(state, mrX), followed.evaluate(state, mrX), 1e-9);
+                var moves = state.getAvailableMoves().asList();
+                double[] expected = new double[moves.size()];
+                double[] actual = new double[moves.size()];
+                fresh.evaluateChildren(state, mrX, moves, expected);
+                followed.evaluateChildren(state, mrX, moves, actual);
+                assertArrayEquals(expected, actual, 1e-9);
+
+                if (move.commencedBy().isMrX())
+                    mrX = Evaluator.finalDestination(move);
+                followed.make(move);
+                state = state.advance(move);
+            }
+            for (int i = 0; i < path.size(); i++)
+                followed.unmake();
+            assertEquals(fresh.evaluate(root, rootMrX), followed.evaluate(root, rootMrX), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EngineServerTest {
+    private static final int[] START = {106, 123, 94, 26, 50, 155};
+
+    /**
+     * @return url of a server started on a free port
+     */
+    private static String start(EngineServer server) throws IOException {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server.start(port);
+        return "ws://localhost:" + port + EngineServer.PATH;
+    }
+
+    @Test
+    void testPipelinedRequestsBeyondTheLimitAreBusy() throws Exception {
+        var server = new EngineServer(2);
+        try (var client = EngineClient.connect(start(server))) {
+            List<CompletableFuture<EngineProtocol.Reply>> replies = new ArrayList<>();
+            for (int id = 0; id < 4; id++)
+                replies.add(client.send(EngineProtocol.Request.of(id, 500, START, List.of())));
+
+            var state = EngineProtocol.Request.of(0, 500, START, List.of()).position();
+            for (int id = 0; id < 4; id++) {
+                var reply = replies.get(id).get(5, TimeUnit.SECONDS);
+                assertEquals(id, reply.id);
+                if (id < 2) {
+                    assertEquals(EngineProtocol.Reply.Status.OK, reply.status);
+                    assertTrue(state.getAvailableMoves().contains(reply.move));
+                    assertTrue(reply.depth > 0);
+                } else {
+                    assertEquals(EngineProtocol.Reply.Status.BUSY, reply.status);
+                }
+            }
+
+            //the slots are free again once the replies are out
+            var reply = client.send(EngineProtocol.Request.of(4, 100, START, List.of())).get(5, TimeUnit.SECONDS);
+            assertEquals(EngineProtocol.Reply.Status.OK, reply.status);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void testMalformedPositionIsAnError() throws Exception {
+        var server = new EngineServer(2);
+        try (var client = EngineClient.connect(start(server))) {
+            var reply = client.expect(7);
+            //a record claiming 50 bytes that never come
+            client.sendBytes(ByteBuffer.allocate(13).put(EngineProtocol.REQUEST).putInt(7).putInt(100).putInt(50)
+                    .flip());
+            assertEquals(EngineProtocol.Reply.Status.ERROR, reply.get(5, TimeUnit.SECONDS).status);
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationWeightsTest {
+    @Test
+    void testSaveAndLoadRoundTrip(@TempDir Path dir) throws IOException {
+        var weights = new EvaluationWeights(new double[]{1.25, -0.0375, 1e-7, 123456.789});
+        Path file = dir.resolve("weights.txt");
+        weights.save(file, "tuned on nothing");
+        assertEquals("# tuned on nothing", Files.readAllLines(file).get(0));
+        assertArrayEquals(weights.toArray(), EvaluationWeights.load(file).toArray(), 1e-12);
+    }
+
+    @Test
+    void testMissingFeaturesKeepTheirDefault(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("weights.txt");
+        Files.write(file, List.of("# only one", "", "secretTickets 2.5"));
+        var weights = EvaluationWeights.load(file);
+        for (int feature = 0; feature < EvaluationWeights.FEATURE_COUNT; feature++)
+            assertEquals(feature == EvaluationWeights.SECRET_TICKETS ? 2.5 : EvaluationWeights.DEFAULT.get(feature),
+                    weights.get(feature));
+    }
+
+    @Test
+    void testMalformedEntriesAreRejected(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("weights.txt");
+        for (String line : List.of("unknownFeature 1", "minDistance", "minDistance one", "minDistance 1 2")) {
+            Files.write(file, List.of(line));
+            assertThrows(IOException.class, () -> EvaluationWeights.load(file));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class GameRecordTest {
+    @Test
+    void testRoundTrip(@TempDir Path dir) throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var games = new ArrayList<List<Move>>();
+        Path file = dir.resolve("games.bin");
+        try (var writer = new GameRecordWriter(file)) {
+            for (int seed = 0; seed < 20; seed++) {
+                var moves = RandomGames.play(setup, new Random(seed));
+                games.add(moves);
+                writer.append(GameRecord.STANDARD_MAP, setup.rounds, RandomGames.START, moves, GameRecord.Winner.NONE);
+            }
+        }
+
+        try (var reader = GameRecordReader.open(file)) {
+            for (List<Move> moves : games) {
+                assertTrue(reader.nextRecord());
+                assertEquals(GameRecord.STANDARD_MAP, reader.mapId());
+                assertEquals(RandomGames.START.length, reader.playerCount());
+                assertEquals(moves.size(), reader.moveCount());
+                int[] locations = RandomGames.START.clone();
+                for (Move move : moves) {
+                    assertTrue(reader.nextMove());
+                    assertEquals(move, reader.toMove(locations[reader.player()]));
+                    locations[reader.player()] = reader.destination();
+                }
+                assertFalse(reader.nextMove());
+            }
+            assertFalse(reader.nextRecord());
+        }
+    }
+
+    @Test
+    void testAppendAndReplay(@TempDir Path dir) throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        Path file = dir.resolve("games.bin");
+        var moves = RandomGames.play(setup, new Random(42));
+        try (var writer = new GameRecordWriter(file)) {
+            writer.append(GameRecord.STANDARD_MAP, setup.rounds, RandomGames.START, moves, GameRecord.Winner.MRX);
+        }
+        try (var writer = new GameRecordWriter(file)) {
+            writer.append(GameRecord.STANDARD_MAP, setup.rounds, RandomGames.START, moves.subList(0, 7),
+                    GameRecord.Winner.NONE);
+        }
+
+        try (var reader = GameRecordReader.open(file)) {
+            assertTrue(reader.nextRecord());
+            assertEquals(GameRecord.Winner.MRX, reader.winner());
+            var replayed = reader.replay(setup);
+            Board.GameState expected = RandomGames.start(setup);
+            for (Move move : moves)
+                expected = expected.advance(move);
+            assertEquals(expected.getMrXTravelLog(), replayed.getMrXTravelLog());
+            for (Piece.Detective d : Piece.Detective.values())
+                assertEquals(expected.getDetectiveLocation(d), replayed.getDetectiveLocation(d));
+
+            assertTrue(reader.nextRecord());
+            assertEquals(7, reader.moveCount());
+            assertFalse(reader.nextRecord());
+        }
+    }
+
+    @Test
+    void testReplayKeepsThePiecesAndTicketsOfTheRecord(@TempDir Path dir) throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var players = ImmutableList.of(
+                new Player(Piece.MrX.MRX, ImmutableMap.of(Ticket.TAXI, 6, Ticket.BUS, 1, Ticket.SECRET, 2), 106),
+                new Player(Piece.Detective.BLUE, ImmutableMap.of(Ticket.TAXI, 3, Ticket.UNDERGROUND, 1), 26),
+                new Player(Piece.Detective.YELLOW, ImmutableMap.of(Ticket.BUS, 2, Ticket.TAXI, 1), 155));
+        Board.GameState expected = MyGameStateFactory.a(setup, players.get(0), players.subList(1, 3));
+        var random = new Random(5);
+        var moves = new ArrayList<Move>();
+        while (expected.getWinner().isEmpty()) {
+            var available = expected.getAvailableMoves().asList();
+            var move = available.get(random.nextInt(available.size()));
+            moves.add(move);
+            expected = expected.advance(move);
+        }
+        Path file = dir.resolve("games.bin");
+        try (var writer = new GameRecordWriter(file)) {
+            writer.append(GameRecord.STANDARD_MAP, setup.rounds, players, moves, GameRecord.Winner.NONE);
+        }
+
+        try (var reader = GameRecordReader.open(file)) {
+            assertTrue(reader.nextRecord());
+            assertEquals(2, reader.ticketCount(0, Ticket.SECRET));
+            var replayed = reader.replay(setup);
+            assertEquals(expected.getPlayers(), replayed.getPlayers());
+            assertEquals(expected.getWinner(), replayed.getWinner());
+            for (Piece piece : expected.getPlayers())
+                for (Ticket ticket : Ticket.values())
+                    assertEquals(expected.getPlayerTickets(piece).orElseThrow().getCount(ticket),
+                            replayed.getPlayerTickets(piece).orElseThrow().getCount(ticket));
+            assertEquals(expected.getMrXTravelLog(), replayed.getMrXTravelLog());
+        }
+    }
+
+    @Test
+    void testCursorsOverABufferStartAtItsFirstRecord() throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var moves = RandomGames.play(setup, new Random(3));
+        var buffer = ByteBuffer.allocate(GameRecordWriter.recordBytes(RandomGames.START.length, moves));
+        GameRecordWriter.put(buffer, GameRecord.STANDARD_MAP, setup.rounds, RandomGames.START, moves,
+                GameRecord.Winner.MRX);
+        var reader = GameRecordReader.wrap(buffer.flip());
+        assertTrue(reader.nextRecord());
+
+        var copy = reader.duplicate();
+        assertTrue(copy.nextRecord());
+        assertEquals(moves.size(), copy.moveCount());
+        reader.rewind();
+        assertTrue(reader.nextRecord());
+        assertEquals(moves.size(), reader.moveCount());
+        assertFalse(reader.nextRecord());
+    }
+}
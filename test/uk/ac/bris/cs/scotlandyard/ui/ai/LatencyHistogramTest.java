@@ -0,0 +1,33 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+    @Test
+    void testQuantilesWithinBucketPrecision() {
+        var histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1_000_000; micros++)
+            histogram.record(micros);
+
+        assertEquals(1_000_000, histogram.count());
+        assertEquals(1_000_000, histogram.max());
+        assertEquals(500_000.5, histogram.mean(), 1e-9);
+        for (double q : new double[]{0.00001, 0.5, 0.9, 0.99, 0.999}) {
+            long expected = (long) Math.ceil(q * 1_000_000);
+            long actual = histogram.quantile(q);
+            assertTrue(actual >= expected && actual <= expected * 1.07, q + ": " + actual);
+        }
+    }
+
+    @Test
+    void testEmptyAndSmallValues() {
+        var histogram = new LatencyHistogram();
+        assertEquals(0, histogram.quantile(0.5));
+        histogram.record(-5);
+        histogram.record(7);
+        assertEquals(0, histogram.quantile(0.5));
+        assertEquals(7, histogram.quantile(1));
+    }
+}
@@ -0,0 +1,78 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class MapAbstractionTest {
+    @Test
+    void testRegionsCoverTheMapAndAreConnected() throws IOException {
+        var tables = MapTables.of(standardGraph());
+        var abstraction = MapAbstraction.of(tables);
+        assertTrue(abstraction.regionCount() > 1);
+        int total = 0;
+        for (int region = 0; region < abstraction.regionCount(); region++) {
+            //everything reached from the hub without leaving the region is the whole region
+            int hub = abstraction.hub(region);
+            assertEquals(region, abstraction.regionOf(hub));
+            var seen = new boolean[tables.size];
+            var queue = new ArrayDeque<>(List.of(hub));
+            seen[hub] = true;
+            int reached = 0;
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                reached++;
+                for (int neighbour : tables.neighbours(node))
+                    if (!seen[neighbour] && abstraction.regionOf(neighbour) == region) {
+                        seen[neighbour] = true;
+                        queue.add(neighbour);
+                    }
+            }
+            assertEquals(abstraction.size(region), reached, "region " + region);
+            total += reached;
+        }
+        assertEquals(tables.nodeCount, total);
+    }
+
+    @Test
+    void testPlannedSearchPlaysAMoveThePlanAllows() throws IOException {
+        //MrX at 149 is hemmed in to the south east, the detectives haven't seen him yet so he has time to get out
+        var state = MyGameStateFactory.a(new GameSetup(standardGraph(), STANDARD24ROUNDS),
+                new Player(Piece.MrX.MRX, defaultMrXTickets(), 149),
+                ImmutableList.of(new Player(Piece.Detective.RED, defaultDetectiveTickets(), 94),
+                        new Player(Piece.Detective.GREEN, defaultDetectiveTickets(), 79),
+                        new Player(Piece.Detective.BLUE, defaultDetectiveTickets(), 93),
+                        new Player(Piece.Detective.WHITE, defaultDetectiveTickets(), 197),
+                        new Player(Piece.Detective.YELLOW, defaultDetectiveTickets(), 173)));
+        var plan = MapAbstraction.of(MapTables.of(standardGraph())).plan(state, 8);
+        assertTrue(plan.targets.length > 0);
+        long allowed = state.getAvailableMoves().stream().filter(plan::allows).count();
+        assertTrue(allowed > 0 && allowed < state.getAvailableMoves().size());
+
+        var search = new Utils(state, 4).withPlan(8);
+        Move move = null;
+        while (search.hasNext())
+            move = search.next();
+        assertTrue(plan.allows(move), move.toString());
+    }
+
+    @Test
+    void testCancelledPlanKeepsTheRoundsPlayedOut() throws IOException {
+        var state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        var abstraction = MapAbstraction.of(MapTables.of(standardGraph()));
+        //the first rounds are played out before the playout gets to check, the whole game is never finished
+        var plan = abstraction.plan(state, STANDARD24ROUNDS.size(), () -> true);
+        assertNotNull(plan);
+        assertTrue(IntStream.rangeClosed(1, 4)
+                .anyMatch(rounds -> Arrays.equals(abstraction.plan(state, rounds).targets, plan.targets)));
+    }
+}
@@ -7,6 +7,7 @@ import com.google.common.graph.ValueGraph;
 import com.google.common.graph.ValueGraphBuilder;
 import org.junit.jupiter.api.Test;
 import uk.ac.bris.cs.scotlandyard.model.ScotlandYard;
+import uk.ac.bris.cs.scotlandyard.ui.ai.benchmark.SyntheticMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -67,6 +68,18 @@ class PathFinderTest {
         assertEquals(rows[17].priority, 8);
     }
 
+    @Test
+    void testPathFinderOnLargeMap() {
+        var graph = SyntheticMap.generate(1000, 1);
+        var tables = MapTables.of(graph);
+        var rows = new PathFinder<>(graph, 777).getTable();
+
+        assertEquals(1001, rows.length);
+        for (int node = 1; node <= 1000; node++)
+            assertEquals(tables.distance(777, node), rows[node].priority);
+        assertEquals(1000, tables.nodeCount);
+    }
+
     ImmutableValueGraph<Integer, Integer> generateGraph() {
         var builder = ValueGraphBuilder
                 .undirected()
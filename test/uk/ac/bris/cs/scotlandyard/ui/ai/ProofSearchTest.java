@@ -0,0 +1,65 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class ProofSearchTest {
+    private static Board.GameState state(GameSetup setup, ImmutableMap<Ticket, Integer> mrXTickets, int mrX,
+                                         int... detectiveLocations) {
+        var detectives = new ArrayList<Player>();
+        for (int i = 0; i < detectiveLocations.length; i++)
+            detectives.add(new Player(ALL_PIECES.get(i + 1), defaultDetectiveTickets(), detectiveLocations[i]));
+        return MyGameStateFactory.a(setup, new Player(Piece.MrX.MRX, mrXTickets, mrX),
+                ImmutableList.copyOf(detectives));
+    }
+
+    @Test
+    void testCornerWithTaxisOnlyIsLost() throws IOException {
+        //MrX can only take a taxi to 8 or 9, Red reaches 8 and Green 9 by taxi
+        var state = state(new GameSetup(standardGraph(), STANDARD24ROUNDS),
+                ImmutableMap.of(Ticket.TAXI, 1, Ticket.BUS, 0, Ticket.UNDERGROUND, 0,
+                        Ticket.DOUBLE, 0, Ticket.SECRET, 0), 1, 18, 20, 155, 128, 199);
+        var proof = new ProofSearch(state, ProofSearch.DEFAULT_BUDGET, () -> false);
+
+        assertEquals(ProofSearch.Result.LOSS, proof.solve());
+        assertNull(proof.getWinningMove());
+        assertEquals(state.getAvailableMoves(), proof.getLosingMoves());
+    }
+
+    @Test
+    void testLastRoundFarFromDetectivesIsWon() throws IOException {
+        var state = state(new GameSetup(standardGraph(), ImmutableList.of(false)), defaultMrXTickets(),
+                106, 123, 94, 26, 50, 155);
+        var proof = new ProofSearch(state, 100000, () -> false);
+
+        assertEquals(ProofSearch.Result.WIN, proof.solve());
+        assertTrue(state.getAvailableMoves().contains(proof.getWinningMove()));
+
+        //the proof runs after the first iteration and ends the search there
+        var search = new Utils(state, 6).withProofBudget(100000);
+        while (search.hasNext())
+            search.next();
+        assertEquals(Evaluator.WIN, search.getBestRootMove().score);
+        assertEquals(1, search.getCompletedDepth());
+        assertEquals(1, search.getBestRootMove().depth);
+        assertTrue(search.getProofNodeCount() > 0);
+    }
+
+    @Test
+    void testBudgetLeavesUnknown() throws IOException {
+        var state = state(new GameSetup(standardGraph(), STANDARD24ROUNDS), defaultMrXTickets(),
+                106, 123, 94, 26, 50, 155);
+        var proof = new ProofSearch(state, 100, () -> false);
+
+        assertEquals(ProofSearch.Result.UNKNOWN, proof.solve());
+        assertTrue(proof.getNodes() < 100 + state.getAvailableMoves().size());
+    }
+}
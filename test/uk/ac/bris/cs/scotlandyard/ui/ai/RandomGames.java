@@ -0,0 +1,79 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+/**
+ * Seeded random games from a fixed start, for tests that check a property over many positions
+ */
+final class RandomGames {
+    /** MrX's location, then the detectives' */
+    static final int[] START = {106, 123, 94, 26, 50, 155};
+
+    /**
+     * Position of a random game
+     */
+    interface Visitor {
+        /**
+         * @param state position, not over
+         * @param mrX MrX's location, also when it's hidden
+         * @param next move the game goes on with
+         */
+        void visit(Board.GameState state, int mrX, Move next);
+    }
+
+    private RandomGames() {}
+
+    static Board.GameState start(GameSetup setup) {
+        return start(setup, START);
+    }
+
+    /**
+     * @param locations MrX's location, then the detectives'
+     */
+    static Board.GameState start(GameSetup setup, int[] locations) {
+        var detectives = new ArrayList<Player>();
+        for (int i = 1; i < locations.length; i++)
+            detectives.add(new Player(ALL_PIECES.get(i), defaultDetectiveTickets(), locations[i]));
+        return MyGameStateFactory.a(setup, new Player(Piece.MrX.MRX, defaultMrXTickets(), locations[0]),
+                ImmutableList.copyOf(detectives));
+    }
+
+    /**
+     * @return moves of a game from {@link #start} to its end, each picked uniformly
+     */
+    static List<Move> play(GameSetup setup, Random random) {
+        var moves = new ArrayList<Move>();
+        Board.GameState state = start(setup);
+        while (state.getWinner().isEmpty()) {
+            var available = state.getAvailableMoves().asList();
+            Move move = available.get(random.nextInt(available.size()));
+            moves.add(move);
+            state = state.advance(move);
+        }
+        return moves;
+    }
+
+    /**
+     * Visit every position of the given number of games played by {@link #play}
+     */
+    static void forEachPosition(GameSetup setup, long seed, int games, Visitor visitor) {
+        var random = new Random(seed);
+        for (int game = 0; game < games; game++) {
+            Board.GameState state = start(setup);
+            int mrX = START[0];
+            for (Move move : play(setup, random)) {
+                visitor.visit(state, mrX, move);
+                if (move.commencedBy().isMrX())
+                    mrX = Evaluator.finalDestination(move);
+                state = state.advance(move);
+            }
+        }
+    }
+}
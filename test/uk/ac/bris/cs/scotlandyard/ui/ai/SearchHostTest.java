@@ -0,0 +1,73 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class SearchHostTest {
+    @Test
+    void testSearchesShareOneThreadAndMeetDeadlines() throws Exception {
+        var state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        var host = new SearchHost(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        List<CompletableFuture<Utils.RootMove>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            results.add(host.submit(new Utils(state, 20), deadline));
+
+        for (var result : results) {
+            var best = result.get(1, TimeUnit.SECONDS);
+            assertTrue(best.depth > 0);
+            assertTrue(state.getAvailableMoves().contains(best.move));
+        }
+        assertTrue(System.nanoTime() <= deadline);
+        assertEquals(4, host.getSearches());
+    }
+
+    @Test
+    void testALoneSearchRunsUntilItsDeadline() throws Exception {
+        var state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        var host = new SearchHost(2);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        //no other game needs the threads, so iterations that may overrun are started and cut off by the watchdog
+        long done = host.submit(new Utils(state, 20), deadline).thenApply(best -> System.nanoTime())
+                .get(1, TimeUnit.SECONDS);
+        assertTrue(done >= deadline - TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void testAnUrgentGamePreemptsALongIteration() throws Exception {
+        var state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        var host = new SearchHost(1);
+        var relaxed = host.submit(new Utils(state, 20), System.nanoTime() + TimeUnit.SECONDS.toNanos(3));
+        //by now the relaxed game's iterations take longer than the urgent game's whole budget
+        Thread.sleep(1500);
+        var urgent = host.submit(new Utils(state, 20), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(150));
+
+        assertTrue(urgent.get(1, TimeUnit.SECONDS).depth > 0);
+        assertTrue(relaxed.get(3, TimeUnit.SECONDS).depth > 0);
+    }
+
+    @Test
+    void testAFailingSearchDoesNotStopTheThread() throws Exception {
+        var state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        var host = new SearchHost(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        var failing = host.submit(new Utils(state, 20) {
+            @Override
+            public Move next() {
+                throw new AssertionError("broken search");
+            }
+        }, deadline);
+        var healthy = host.submit(new Utils(state, 20), deadline);
+
+        assertEquals(0, failing.get(1, TimeUnit.SECONDS).depth);
+        assertTrue(healthy.get(1, TimeUnit.SECONDS).depth > 0);
+    }
+}
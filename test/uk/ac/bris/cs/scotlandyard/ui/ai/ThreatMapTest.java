@@ -0,0 +1,48 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class ThreatMapTest {
+    @Test
+    void testReachMatchesDistances() throws IOException {
+        var tables = MapTables.of(standardGraph());
+        int all = MapTables.transportMask(EnumSet.allOf(Transport.class));
+        for (Integer from : tables.graph.nodes()) {
+            int[] distances = tables.distancesFrom(from);
+            for (Integer to : tables.graph.nodes())
+                for (int steps = 1; steps <= MapTables.MAX_REACH_STEPS; steps++)
+                    assertEquals(from.equals(to) ? steps >= 2 : distances[to] <= steps,
+                            tables.reaches(from, all, steps, to), from + " -> " + to + " in " + steps);
+        }
+    }
+
+    @Test
+    void testDetectivesOnlyUseTransportsTheyHaveTicketsFor() throws IOException {
+        //Red at 1 only has taxi tickets, so it gets to 8 and 9 but not to 46 by bus or underground; Green at 58 gets to 46 by bus
+        var taxiOnly = ImmutableMap.of(Ticket.TAXI, 10, Ticket.BUS, 0, Ticket.UNDERGROUND, 0,
+                Ticket.DOUBLE, 0, Ticket.SECRET, 0);
+        var state = MyGameStateFactory.a(new GameSetup(standardGraph(), STANDARD24ROUNDS),
+                new Player(Piece.MrX.MRX, defaultMrXTickets(), 106),
+                ImmutableList.of(new Player(Piece.Detective.RED, taxiOnly, 1),
+                        new Player(Piece.Detective.GREEN, defaultDetectiveTickets(), 58)));
+        var threats = ThreatMap.of(MapTables.of(standardGraph()), state);
+
+        assertEquals(1, threats.threatCount(8));
+        assertEquals(1, threats.threatCount(9));
+        assertEquals(1, threats.threatCount(46));
+        assertTrue(threats.isThreatened(1, 1));
+        var toSafety = state.getAvailableMoves().stream()
+                .filter(move -> move instanceof Move.SingleMove && ((Move.SingleMove) move).destination == 105)
+                .findFirst().orElseThrow();
+        assertTrue(threats.isSafe(toSafety));
+    }
+}
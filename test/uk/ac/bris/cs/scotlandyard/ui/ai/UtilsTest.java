@@ -0,0 +1,254 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class UtilsTest {
+    @Test
+    void testFallbackMoveBeforeSearch() throws IOException {
+        var state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        var u = new Utils(state, 20);
+        u.stop();
+
+        assertFalse(u.hasNext());
+        assertTrue(state.getAvailableMoves().contains(u.next()));
+        assertEquals(0, u.getBestRootMove().depth);
+    }
+
+    @Test
+    void testStoppedSearchKeepsPublishedMove() throws Exception {
+        var state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        var u = new Utils(state, 20);
+        var search = new Thread(() -> {
+            while (u.hasNext())
+                u.next();
+        });
+        search.start();
+        Thread.sleep(1000);
+        u.stop();
+        search.join(1000);
+
+        assertFalse(search.isAlive());
+        var best = u.getBestRootMove();
+        assertTrue(best.depth >= u.getCompletedDepth() && best.depth > 0);
+        assertTrue(state.getAvailableMoves().contains(best.move));
+    }
+
+    @Test
+    void testStoppingMidPathUnwindsTheEvaluator() throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var state = RandomGames.start(setup);
+        var scoring = new DefaultEvaluator(MapTables.of(setup.graph), setup.rounds, EvaluationWeights.DEFAULT);
+        var search = new Utils[1];
+        int[] made = new int[1];
+        int[] evaluated = new int[1];
+        search[0] = new Utils(state, 20).withCoalition(8).withEvaluator(new Evaluator() {
+            @Override
+            public double evaluate(Board board, int mrXLocation) {
+                if (++evaluated[0] == 5000)
+                    search[0].stop();
+                return scoring.evaluate(board, mrXLocation);
+            }
+
+            @Override
+            public void make(Move move) {
+                made[0]++;
+            }
+
+            @Override
+            public void unmake() {
+                made[0]--;
+            }
+        });
+        while (search[0].hasNext())
+            search[0].next();
+
+        assertTrue(evaluated[0] >= 5000);
+        assertEquals(0, made[0]);
+    }
+
+    @Test
+    void testAnalysisStreamsEveryDepthWithMultiPv() throws Exception {
+        Board.GameState state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        do
+            state = state.advance(state.getAvailableMoves().asList().get(0));
+        while (!state.getAvailableMoves().asList().get(0).commencedBy().isMrX());
+        var u = new Utils(state, 4).withMultiPv(3);
+        List<SearchInfo> events = new CopyOnWriteArrayList<>();
+        var done = new CountDownLatch(1);
+        u.analysis().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(SearchInfo item) {
+                events.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        while (u.hasNext())
+            u.next();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        var depths = events.stream().filter(e -> e.kind == SearchInfo.Kind.DEPTH).toArray(SearchInfo[]::new);
+        assertEquals(4, depths.length);
+        for (int i = 0; i < depths.length; i++) {
+            assertEquals(i + 1, depths[i].depth);
+            assertEquals(3, depths[i].lines.size());
+            for (int j = 1; j < 3; j++)
+                assertTrue(depths[i].lines.get(j - 1).score >= depths[i].lines.get(j).score);
+            for (var line : depths[i].lines) {
+                assertEquals(line.move, line.pv.get(0));
+                assertTrue(line.pv.size() <= i + 1);
+            }
+        }
+        var last = depths[depths.length - 1];
+        assertEquals(4, last.best().pv.size());
+        assertEquals(u.getBestMove(), last.best().move);
+
+        var single = new Utils(state, 4);
+        while (single.hasNext())
+            single.next();
+        assertEquals(single.getBestRootMove().score, last.best().score, 1e-9);
+    }
+
+    @Test
+    void testCoalitionReachesMrXsSecondMoveAtDepthThree() throws IOException {
+        var state = RandomGames.start(new GameSetup(standardGraph(), STANDARD24ROUNDS));
+        var u = new Utils(state, 3).withCoalition(8).withProofBudget(0);
+        while (u.hasNext())
+            u.next();
+
+        assertEquals(3, u.getCompletedDepth());
+        assertTrue(state.getAvailableMoves().contains(u.getBestMove()));
+        //the detectives' round comes whole, so the line can be played out
+        var pv = u.getLines().get(0).pv;
+        int detectives = state.getPlayers().size() - 1;
+        assertEquals(detectives + 2, pv.size());
+        Board.GameState played = state;
+        for (Move move : pv) {
+            assertTrue(played.getAvailableMoves().contains(move));
+            played = played.advance(move);
+        }
+        assertTrue(pv.get(0).commencedBy().isMrX());
+        assertTrue(pv.get(detectives + 1).commencedBy().isMrX());
+    }
+
+    @Test
+    void testEquivalentMovesLeaveTheSameBeliefSet() throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var tables = MapTables.of(setup.graph);
+        var beliefs = tables.beliefs;
+        int[] merged = new int[1];
+        int[] keptApart = new int[1];
+        RandomGames.forEachPosition(setup, 6, 30, (state, mrX, next) -> {
+            if (!next.commencedBy().isMrX())
+                return;
+            var groups = Utils.equivalentMoves(state, state.getAvailableMoves());
+            Map<List<Object>, Long> revealedMiddles = new HashMap<>();
+            for (List<Move> group : groups) {
+                var first = group.get(0);
+                var expected = beliefs.lookup(state.advance(first).getMrXTravelLog());
+                for (Move move : group.subList(1, group.size())) {
+                    merged[0]++;
+                    assertEquals(Evaluator.finalDestination(first), Evaluator.finalDestination(move));
+                    var belief = beliefs.lookup(state.advance(move).getMrXTravelLog());
+                    if (expected == null) {
+                        assertNull(belief);
+                    } else {
+                        assertEquals(expected.size, belief.size, move.toString());
+                        for (int node = 0; node < tables.size; node++)
+                            assertEquals(expected.contains(node), belief.contains(node), move.toString());
+                    }
+                }
+                //double moves revealed at their middle node but otherwise alike
+                if (first instanceof Move.DoubleMove && state.getSetup().rounds.get(state.getMrXTravelLog().size()))
+                    revealedMiddles.merge(List.of(Evaluator.finalDestination(first),
+                            ((Move.DoubleMove) first).ticket2), 1L, Long::sum);
+            }
+            keptApart[0] += revealedMiddles.values().stream().filter(count -> count > 1).count();
+        });
+        assertTrue(merged[0] > 0);
+        assertTrue(keptApart[0] > 0);
+    }
+
+    private static Board.GameState position(GameSetup setup, ImmutableMap<Ticket, Integer> detectiveTickets, int mrX,
+                                            int... detectives) {
+        var players = new ArrayList<Player>();
+        for (int i = 0; i < detectives.length; i++)
+            players.add(new Player(ALL_PIECES.get(i + 1), i < 2 ? detectiveTickets : noTickets(), detectives[i]));
+        return MyGameStateFactory.a(setup, new Player(Piece.MrX.MRX, defaultMrXTickets(), mrX),
+                ImmutableList.copyOf(players));
+    }
+
+    private static ImmutableMap<Ticket, Integer> noTickets() {
+        return ImmutableMap.of(Ticket.TAXI, 0, Ticket.BUS, 0, Ticket.UNDERGROUND, 0, Ticket.DOUBLE, 0, Ticket.SECRET, 0);
+    }
+
+    @Test
+    void testCoalitionWhenTheDetectivesCanOnlyMoveToTheSameNode() throws IOException {
+        //Red at 6 and Green at 17 can only take a taxi to 7, Blue at 29, White at 30 and Yellow can't move
+        var taxi = ImmutableMap.of(Ticket.TAXI, 1, Ticket.BUS, 0, Ticket.UNDERGROUND, 0, Ticket.DOUBLE, 0,
+                Ticket.SECRET, 0);
+        var state = position(new GameSetup(standardGraph(), STANDARD24ROUNDS), taxi, 106, 6, 17, 29, 30, 199);
+        var u = new Utils(state, 3).withCoalition(8);
+        while (u.hasNext())
+            u.next();
+
+        assertEquals(3, u.getCompletedDepth());
+        assertTrue(state.getAvailableMoves().contains(u.getBestMove()));
+    }
+
+    @Test
+    void testCoalitionAgreesWithTheDetectivesOneByOneOnForcedResults() throws IOException {
+        //MrX at 1 with only taxis gets caught whatever he does; in the last round far from everyone he escapes
+        var cornered = ImmutableMap.of(Ticket.TAXI, 1, Ticket.BUS, 0, Ticket.UNDERGROUND, 0, Ticket.DOUBLE, 0,
+                Ticket.SECRET, 0);
+        var detectives = new ArrayList<Player>();
+        int[] locations = {18, 20, 155, 128, 199};
+        for (int i = 0; i < locations.length; i++)
+            detectives.add(new Player(ALL_PIECES.get(i + 1), defaultDetectiveTickets(), locations[i]));
+        var caught = MyGameStateFactory.a(new GameSetup(standardGraph(), STANDARD24ROUNDS),
+                new Player(Piece.MrX.MRX, cornered, 1), ImmutableList.copyOf(detectives));
+        var escapes = RandomGames.start(new GameSetup(standardGraph(), ImmutableList.of(false)));
+
+        for (var state : List.of(caught, escapes)) {
+            var coalition = new Utils(state, 3).withCoalition(8);
+            while (coalition.hasNext())
+                coalition.next();
+            //one layer per detective: MrX, then each detective, then MrX again
+            int players = state.getPlayers().size();
+            var oneByOne = new Utils(state, players + 1);
+            while (oneByOne.hasNext())
+                oneByOne.next();
+
+            assertEquals(oneByOne.getBestRootMove().score, coalition.getBestRootMove().score);
+            assertTrue(Math.abs(coalition.getBestRootMove().score) == Evaluator.WIN);
+        }
+    }
+}
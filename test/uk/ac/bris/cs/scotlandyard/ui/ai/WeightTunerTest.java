@@ -0,0 +1,74 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+class WeightTunerTest {
+    @Test
+    void testTuningRewardsTheDistanceTheOutcomeDependsOn(@TempDir Path dir) throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var tables = MapTables.of(setup.graph);
+        Path file = dir.resolve("games.bin");
+        //random starts played up to MrX's second move, so each game gives one sample: the position before it,
+        //which MrX is recorded to win when no detective is within two hops
+        var random = new Random(5);
+        var nodes = new ArrayList<>(setup.graph.nodes());
+        int games = 0;
+        try (var writer = new GameRecordWriter(file)) {
+            while (games < 300) {
+                Collections.shuffle(nodes, random);
+                int[] start = nodes.subList(0, ALL_PIECES.size()).stream().mapToInt(Integer::intValue).toArray();
+                Board.GameState state = RandomGames.start(setup, start);
+                List<Move> moves = new ArrayList<>();
+                int mrXMoves = 0;
+                while (state.getWinner().isEmpty()) {
+                    var available = state.getAvailableMoves().asList();
+                    Move move = available.get(random.nextInt(available.size()));
+                    moves.add(move);
+                    if (move.commencedBy().isMrX() && ++mrXMoves == 2) {
+                        int mrX = move.source();
+                        int closest = Integer.MAX_VALUE;
+                        for (Piece.Detective detective : Piece.Detective.values())
+                            closest = Math.min(closest,
+                                    tables.distance(mrX, state.getDetectiveLocation(detective).orElseThrow()));
+                        var winner = closest > 2 ? GameRecord.Winner.MRX : GameRecord.Winner.DETECTIVES;
+                        writer.append(GameRecord.STANDARD_MAP, setup.rounds, start, moves, winner);
+                        games++;
+                        break;
+                    }
+                    state = state.advance(move);
+                }
+            }
+        }
+
+        //longer runs fit the outcome better and lean further on the closest detective than on anything else
+        double previousLoss = Double.POSITIVE_INFINITY;
+        double previousWeight = 0;
+        for (int epochs : new int[]{1, 10, 50}) {
+            var tuner = new WeightTuner(tables, GameRecord.STANDARD_MAP, epochs, 32, 0.5, 0);
+            try (var reader = GameRecordReader.open(file)) {
+                assertEquals(games, tuner.load(reader));
+            }
+            var weights = tuner.tune();
+            double weight = weights.get(EvaluationWeights.MIN_DISTANCE);
+            assertTrue(weight > previousWeight, weights.toString());
+            for (int feature = 0; feature < EvaluationWeights.FEATURE_COUNT; feature++)
+                if (feature != EvaluationWeights.MIN_DISTANCE)
+                    assertTrue(Math.abs(weights.get(feature)) < weight, weights.toString());
+            assertTrue(tuner.getLastLoss() < previousLoss);
+            previousLoss = tuner.getLastLoss();
+            previousWeight = weight;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai.benchmark;
+
+import uk.ac.bris.cs.scotlandyard.model.*;
+import uk.ac.bris.cs.scotlandyard.ui.ai.MoveStats;
+import uk.ac.bris.cs.scotlandyard.ui.ai.SearchHost;
+import uk.ac.bris.cs.scotlandyard.ui.ai.Utils;
+import uk.ac.bris.cs.scotlandyard.ui.ai.WarmUp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+/**
+ * Plays many games at once against one {@link SearchHost} and reports the deadline-miss rate
+ * for an increasing number of matches per core
+ * MrX searches with the host, detectives play random moves
+ * Usage: HostLoadBenchmark [deadline-ms [mrx-moves-per-game [matches...]]]
+ */
+public class HostLoadBenchmark {
+    public static void main(String[] args) throws Exception {
+        long deadlineMillis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        int movesPerGame = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> matches = new ArrayList<>();
+        for (int i = 2; i < args.length; i++)
+            matches.add(Integer.parseInt(args[i]));
+        if (matches.isEmpty())
+            for (int perCore : new int[]{1, 2, 4, 8, 16})
+                matches.add(perCore * cores);
+
+        var host = new SearchHost(cores);
+        new WarmUp(3000, host, board -> new Utils(board, 20)).run();
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        System.out.println("matches,matchesPerCore,moves,missRate,meanDepth,minDepth,p50Ms,p99Ms,maxMs,fallbackMoves");
+        for (int count : matches) {
+            var stats = new MoveStats(count + " matches");
+            List<Thread> games = new ArrayList<>();
+            for (int g = 0; g < count; g++) {
+                long seed = g;
+                var game = new Thread(() -> play(host, setup, seed, deadlineMillis, movesPerGame, stats));
+                game.setDaemon(true);
+                games.add(game);
+                game.start();
+            }
+            for (Thread game : games)
+                game.join();
+            var latency = stats.getLatency();
+            System.out.printf("%d,%.2f,%d,%.4f,%.2f,%d,%.1f,%.1f,%.1f,%d%n",
+                    count, (double) count / cores, stats.getMoves(),
+                    (double) stats.getDeadlineMisses() / Math.max(1, stats.getMoves()),
+                    stats.getMeanDepth(), stats.getMinDepth(),
+                    latency.quantile(0.5) / 1e3, latency.quantile(0.99) / 1e3, latency.max() / 1e3,
+                    stats.getNullMoves());
+        }
+        System.out.println(host);
+    }
+
+    private static void play(SearchHost host, GameSetup setup, long seed, long deadlineMillis, int movesPerGame,
+                             MoveStats stats) {
+        var random = new Random(seed);
+        Board.GameState state = SyntheticMap.randomState(setup, random);
+        int mrXMoves = 0;
+        while (state.getWinner().isEmpty() && mrXMoves < movesPerGame) {
+            var moves = state.getAvailableMoves().asList();
+            Move move;
+            if (moves.get(0).commencedBy().isMrX()) {
+                long start = System.nanoTime();
+                var best = host.submit(new Utils(state, 20), start + TimeUnit.MILLISECONDS.toNanos(deadlineMillis))
+                        .join();
+                stats.record((System.nanoTime() - start) / 1000, deadlineMillis * 1000,
+                        best.depth, best.depth > 0);
+                move = best.move;
+                mrXMoves++;
+            } else {
+                move = moves.get(random.nextInt(moves.size()));
+            }
+            state = state.advance(move);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.ac.bris.cs.scotlandyard.model.*;
+import uk.ac.bris.cs.scotlandyard.ui.ai.MapTables;
+import uk.ac.bris.cs.scotlandyard.ui.ai.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.STANDARD24ROUNDS;
+
+/**
+ * How search and distance queries scale with the size of the map, on {@link SyntheticMap}s
+ * Distance queries hit random pairs so that large maps, which can't keep every row, pay for the BFS of misses
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class MapScalingBenchmark {
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MapScalingBenchmark.class.getSimpleName())
+                .result("scalingResult")
+                .resultFormat(ResultFormatType.CSV)
+                .build();
+        new Runner(opt).run();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Move search(MapState state) {
+        return new Utils(state.nextState(), state.depth).benchmarking().next();
+    }
+
+    @Benchmark
+    public int distance(MapState state) {
+        return state.tables.distance(state.randomNode(), state.randomNode());
+    }
+
+    @State(Scope.Benchmark)
+    public static class MapState {
+        private static final int POSITIONS = 8;
+
+        @Param({"199", "1000", "5000", "20000", "50000"})
+        private int nodes;
+
+        @Param({"4"})
+        private int depth;
+
+        private MapTables tables;
+        private final List<Board.GameState> states = new ArrayList<>();
+        private final Random random = new Random(0);
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            var graph = nodes == 199 ? ScotlandYard.standardGraph() : SyntheticMap.generate(nodes, 0);
+            var setup = new GameSetup(graph, STANDARD24ROUNDS);
+            tables = MapTables.of(graph);
+            for (int i = 0; i < POSITIONS; i++)
+                states.add(SyntheticMap.randomState(setup, random));
+        }
+
+        Board.GameState nextState() {
+            return states.get(next++ % states.size());
+        }
+
+        int randomNode() {
+            return 1 + random.nextInt(nodes);
+        }
+    }
+}
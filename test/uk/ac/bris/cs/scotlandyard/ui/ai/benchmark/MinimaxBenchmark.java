@@ -1,5 +1,6 @@
 package uk.ac.bris.cs.scotlandyard.ui.ai.benchmark;
 
+import com.google.common.collect.ImmutableList;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.results.RunResult;
 import org.openjdk.jmh.results.format.ResultFormatType;
@@ -11,6 +12,7 @@ import uk.ac.bris.cs.scotlandyard.model.*;
 import uk.ac.bris.cs.scotlandyard.ui.ai.MrXAi;
 import uk.ac.bris.cs.scotlandyard.ui.ai.Utils;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 @BenchmarkMode(Mode.AverageTime)
@@ -33,34 +35,52 @@ public class MinimaxBenchmark {
     @Benchmark
     @Timeout(time = 15, timeUnit = TimeUnit.SECONDS)
     public Move benchmark(BenchmarkState state) {
-        return new Utils(state.getState(state.index), state.depth).benchmarking().next();
+        return new Utils(state.getState(), state.depth).benchmarking().next();
     }
 //    @Benchmark
 //    @Timeout(time = 15, timeUnit = TimeUnit.SECONDS)
 //    public Move benchmarkWithoutKillerMoves(BenchmarkState state) {
-//        return new Utils(state.getState(state.index), 8).benchmarking().disableKillerMoves().next();
+//        return new Utils(state.getState(), 8).benchmarking().disableKillerMoves().next();
 //    }
 
     @State(Scope.Benchmark)
     public static class BenchmarkState {
         private MrXAi myAi;
 
-        @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13"})
-        private int index;
+        /**
+         * START-i is {@link BenchmarkData}'s i-th position, otherwise the i-th position of a
+         * {@link PositionCorpus.Phase} of the corpus; every phase has its own range, so no trial repeats another
+         */
+        @Param({"START-0", "START-1", "START-2", "START-3", "START-4", "START-5", "START-6",
+                "START-7", "START-8", "START-9", "START-10", "START-11", "START-12", "START-13",
+                "OPENING-0", "OPENING-1", "OPENING-2", "OPENING-3", "OPENING-4",
+                "MIDGAME-0", "MIDGAME-1", "MIDGAME-2", "MIDGAME-3", "MIDGAME-4",
+                "ENDGAME-0", "ENDGAME-1", "ENDGAME-2", "ENDGAME-3", "ENDGAME-4"})
+        private String position;
         private BenchmarkData data;
 
         @Param({"8", "9", "10"})
         private int depth;
+        private Board.GameState state;
 
 
         @Setup(Level.Trial)
-        public void setup() {
+        public void setup() throws IOException {
             myAi = new MrXAi();
-            data = new BenchmarkData();
+            String phase = position.substring(0, position.indexOf('-'));
+            int index = Integer.parseInt(position.substring(phase.length() + 1));
+            ImmutableList<Board.GameState> positions;
+            if (phase.equals("START")) {
+                data = new BenchmarkData();
+                positions = data.getStates();
+            } else {
+                positions = PositionCorpus.load(PositionCorpus.DEFAULT_PATH, PositionCorpus.Phase.valueOf(phase));
+            }
+            state = positions.get(index);
         }
 
-        public Board.GameState getState(int index) {
-            return data.getStates().get(index);
+        public Board.GameState getState() {
+            return state;
         }
     }
 }
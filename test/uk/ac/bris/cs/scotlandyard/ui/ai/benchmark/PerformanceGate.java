@@ -0,0 +1,336 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai.benchmark;
+
+import uk.ac.bris.cs.scotlandyard.model.Board;
+import uk.ac.bris.cs.scotlandyard.ui.ai.Utils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Performance-regression gate: searches the benchmark positions to a fixed depth and compares
+ * time to depth, nodes per second and bytes allocated per node with a checked-in baseline
+ * Times are medians of several interleaved runs; a position regresses when it is slower than the tolerance allows
+ * and the difference is also beyond {@link #SIGMAS} times the runs' noise (scaled median absolute deviation),
+ * so a noisy position needs a larger slowdown to fail; the geometric mean over every position catches
+ * small slowdowns spread everywhere
+ * Baselines are machine specific, record one on the machine that runs the gate
+ * Usage: PerformanceGate record|check [baseline-file]
+ */
+public final class PerformanceGate {
+    /** baseline used unless scotlandyard.perf.baseline says otherwise */
+    public static final Path DEFAULT_BASELINE = Paths.get(System.getProperty("scotlandyard.perf.baseline",
+            "test/uk/ac/bris/cs/scotlandyard/ui/ai/benchmark/data/performance-baseline.csv"));
+    /** depth new baselines are recorded at */
+    static final int DEPTH = Integer.getInteger("scotlandyard.perf.depth", 5);
+    /** measured runs per position */
+    static final int RUNS = Integer.getInteger("scotlandyard.perf.runs", 5);
+    /** unmeasured rounds first, so that every position runs compiled code */
+    static final int WARM_UP_RUNS = 2;
+    /** allowed slowdown of a position's time to depth and time per node */
+    static final double TOLERANCE = Double.parseDouble(System.getProperty("scotlandyard.perf.tolerance", "0.15"));
+    /** allowed slowdown of the geometric mean over every position */
+    static final double MEAN_TOLERANCE = TOLERANCE / 2;
+    /** allowed growth of the bytes allocated per node, which hardly varies between runs */
+    static final double ALLOCATION_TOLERANCE = 0.2;
+    static final double SIGMAS = 3;
+    /** scales a median absolute deviation to a standard deviation for normal noise */
+    private static final double MAD_SCALE = 1.4826;
+    private static final int CORPUS_POSITIONS_PER_PHASE = 3;
+    private static final String HEADER = "position,depth,nodes,medianMillis,madMillis,bytesPerNode";
+
+    private PerformanceGate() {}
+
+    /**
+     * Result of searching one position
+     */
+    static final class Measurement {
+        final String position;
+        final int depth;
+        final long nodes;
+        final double medianMillis;
+        final double madMillis;
+        /** NaN if the JVM can't measure allocation */
+        final double bytesPerNode;
+
+        Measurement(String position, int depth, long nodes, double medianMillis, double madMillis,
+                    double bytesPerNode) {
+            this.position = position;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.medianMillis = medianMillis;
+            this.madMillis = madMillis;
+            this.bytesPerNode = bytesPerNode;
+        }
+
+        double nodesPerSecond() {
+            return nodes / (medianMillis / 1e3);
+        }
+
+        double microsPerNode() {
+            return medianMillis * 1e3 / nodes;
+        }
+
+        double madMicrosPerNode() {
+            return madMillis * 1e3 / nodes;
+        }
+    }
+
+    /**
+     * Outcome of a comparison
+     */
+    static final class Report {
+        final boolean failed;
+        final String table;
+
+        Report(boolean failed, String table) {
+            this.failed = failed;
+            this.table = table;
+        }
+
+        @Override
+        public String toString() {
+            return table;
+        }
+    }
+
+    /**
+     * {@link BenchmarkData}'s positions, then the first few of each later phase of the corpus
+     * @return positions by name, in a stable order
+     * @throws IOException if the corpus can't be read
+     */
+    static Map<String, Board.GameState> positions() throws IOException {
+        Map<String, Board.GameState> positions = new LinkedHashMap<>();
+        var start = new BenchmarkData().getStates();
+        for (int i = 0; i < start.size(); i++)
+            positions.put("start-" + i, start.get(i));
+        for (var phase : List.of(PositionCorpus.Phase.MIDGAME, PositionCorpus.Phase.ENDGAME)) {
+            var corpus = PositionCorpus.load(PositionCorpus.DEFAULT_PATH, phase);
+            for (int i = 0; i < Math.min(CORPUS_POSITIONS_PER_PHASE, corpus.size()); i++)
+                positions.put(phase.name().toLowerCase(Locale.ROOT) + "-" + i, corpus.get(i));
+        }
+        return positions;
+    }
+
+    /**
+     * Search every position to its depth with iterative deepening, measured runs after {@link #WARM_UP_RUNS} rounds
+     * Rounds go through every position in turn so that drift of the machine spreads over all of them
+     * @param positions positions by name
+     * @param depths depth of each position
+     * @param runs measured rounds
+     * @return measurements, in the order of the positions
+     */
+    static List<Measurement> measure(Map<String, Board.GameState> positions, Map<String, Integer> depths, int runs) {
+        var threads = ManagementFactory.getThreadMXBean();
+        var allocation = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long thread = Thread.currentThread().getId();
+
+        List<String> names = new ArrayList<>(positions.keySet());
+        long[] nodes = new long[names.size()];
+        double[][] millis = new double[names.size()][runs];
+        double[][] bytes = new double[names.size()][runs];
+        for (int run = -WARM_UP_RUNS; run < runs; run++) {
+            for (int i = 0; i < names.size(); i++) {
+                long allocatedBefore = allocation == null ? 0 : allocation.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                var search = new Utils(positions.get(names.get(i)), depths.get(names.get(i)));
+                while (search.hasNext())
+                    search.next();
+                long elapsed = System.nanoTime() - start;
+                long allocated = allocation == null ? -1 : allocation.getThreadAllocatedBytes(thread) - allocatedBefore;
+                nodes[i] = search.getNodeCount();
+                if (run < 0)
+                    continue;
+                millis[i][run] = elapsed / 1e6;
+                bytes[i][run] = allocated < 0 ? Double.NaN : (double) allocated / nodes[i];
+            }
+        }
+
+        List<Measurement> measurements = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            double median = median(millis[i]);
+            double[] deviations = Arrays.stream(millis[i]).map(value -> Math.abs(value - median)).toArray();
+            measurements.add(new Measurement(names.get(i), depths.get(names.get(i)), nodes[i],
+                    median, median(deviations), median(bytes[i])));
+        }
+        return measurements;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    /**
+     * Whether current is slower than baseline by more than the tolerance and by more than the noise
+     */
+    static boolean regressed(double baseline, double baselineMad, double current, double currentMad,
+                             double tolerance) {
+        double noise = MAD_SCALE * Math.sqrt(baselineMad * baselineMad + currentMad * currentMad);
+        return current > baseline * (1 + tolerance) && current - baseline > SIGMAS * noise;
+    }
+
+    /**
+     * Compare measurements with a baseline
+     * Positions missing from either side are listed but don't fail the gate; a different node count is
+     * reported since the search itself changed, and time per node is then the fairer comparison
+     * @param baseline baseline measurements
+     * @param current current measurements
+     * @param tolerance allowed slowdown of a position
+     * @return report with one line per position
+     */
+    static Report compare(List<Measurement> baseline, List<Measurement> current, double tolerance) {
+        Map<String, Measurement> base = new LinkedHashMap<>();
+        for (Measurement measurement : baseline)
+            base.put(measurement.position, measurement);
+
+        var table = new StringBuilder(String.format(Locale.ROOT,
+                "%-11s %5s %21s %19s %8s %17s %8s %15s  %s%n",
+                "position", "depth", "nodes", "ms", "time", "knodes/s", "nodes/s", "bytes/node", "verdict"));
+        boolean failed = false;
+        double logRatios = 0;
+        int compared = 0;
+        for (Measurement now : current) {
+            Measurement then = base.remove(now.position);
+            if (then == null) {
+                table.append(String.format(Locale.ROOT, "%-11s %5d %21d %19.1f %8s %17.0f %8s %15.0f  %s%n",
+                        now.position, now.depth, now.nodes, now.medianMillis, "", now.nodesPerSecond() / 1e3, "",
+                        now.bytesPerNode, "new"));
+                continue;
+            }
+            List<String> verdict = new ArrayList<>();
+            if (regressed(then.medianMillis, then.madMillis, now.medianMillis, now.madMillis, tolerance))
+                verdict.add("SLOWER");
+            if (regressed(then.microsPerNode(), then.madMicrosPerNode(),
+                    now.microsPerNode(), now.madMicrosPerNode(), tolerance))
+                verdict.add("FEWER NODES/S");
+            if (now.bytesPerNode > then.bytesPerNode * (1 + ALLOCATION_TOLERANCE))
+                verdict.add("MORE ALLOCATION");
+            failed |= !verdict.isEmpty();
+            if (now.nodes != then.nodes)
+                verdict.add("nodes changed");
+            if (now.depth != then.depth)
+                verdict.add("depth changed");
+            logRatios += Math.log(now.medianMillis / then.medianMillis);
+            compared++;
+            table.append(String.format(Locale.ROOT,
+                    "%-11s %5d %10d>%10d %9.1f>%9.1f %+7.1f%% %8.0f>%8.0f %+7.1f%% %7.0f>%7.0f  %s%n",
+                    now.position, now.depth, then.nodes, now.nodes, then.medianMillis, now.medianMillis,
+                    percent(then.medianMillis, now.medianMillis),
+                    then.nodesPerSecond() / 1e3, now.nodesPerSecond() / 1e3,
+                    percent(then.nodesPerSecond(), now.nodesPerSecond()),
+                    then.bytesPerNode, now.bytesPerNode, verdict.isEmpty() ? "ok" : String.join(", ", verdict)));
+        }
+        for (String missing : base.keySet())
+            table.append(String.format(Locale.ROOT, "%-11s %s%n", missing, "not measured"));
+
+        if (compared > 0) {
+            double meanRatio = Math.exp(logRatios / compared);
+            boolean slower = meanRatio > 1 + MEAN_TOLERANCE;
+            failed |= slower;
+            table.append(String.format(Locale.ROOT,
+                    "geometric mean time ratio %.3f over %d positions (limit %.3f)%s%n",
+                    meanRatio, compared, 1 + MEAN_TOLERANCE, slower ? "  SLOWER" : ""));
+        }
+        return new Report(failed, table.toString());
+    }
+
+    private static double percent(double before, double after) {
+        return (after / before - 1) * 100;
+    }
+
+    /**
+     * @param file baseline file
+     * @return measurements of the baseline
+     * @throws IOException if the file can't be read or is malformed
+     */
+    static List<Measurement> readBaseline(Path file) throws IOException {
+        List<Measurement> measurements = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#") || line.equals(HEADER))
+                continue;
+            String[] fields = line.split(",");
+            if (fields.length != 6)
+                throw new IOException("Malformed baseline line in " + file + ": " + line);
+            try {
+                measurements.add(new Measurement(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                        Double.parseDouble(fields[3]), Double.parseDouble(fields[4]),
+                        Double.parseDouble(fields[5])));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed baseline line in " + file + ": " + line, e);
+            }
+        }
+        return measurements;
+    }
+
+    /**
+     * @param file baseline file, replaced
+     * @param measurements measurements to store
+     * @throws IOException if the file can't be written
+     */
+    static void writeBaseline(Path file, List<Measurement> measurements) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "# %s %s, %s, %d cores, %d runs",
+                System.getProperty("java.vm.name"), System.getProperty("java.version"),
+                System.getProperty("os.arch"), Runtime.getRuntime().availableProcessors(), RUNS));
+        lines.add(HEADER);
+        for (Measurement m : measurements)
+            lines.add(String.format(Locale.ROOT, "%s,%d,%d,%.3f,%.3f,%.1f",
+                    m.position, m.depth, m.nodes, m.medianMillis, m.madMillis, m.bytesPerNode));
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Measure the positions of a baseline at the baseline's depths, positions it lacks at {@link #DEPTH}
+     * @param baseline baseline file
+     * @return comparison with the baseline
+     * @throws IOException if the baseline or the corpus can't be read
+     */
+    static Report check(Path baseline) throws IOException {
+        var measurements = readBaseline(baseline);
+        var positions = positions();
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (String name : positions.keySet())
+            depths.put(name, DEPTH);
+        for (Measurement measurement : measurements)
+            depths.replace(measurement.position, measurement.depth);
+        return compare(measurements, measure(positions, depths, RUNS), TOLERANCE);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !(args[0].equals("record") || args[0].equals("check"))) {
+            System.err.println("Usage: PerformanceGate record|check [baseline-file]");
+            System.exit(1);
+        }
+        Path file = args.length > 1 ? Paths.get(args[1]) : DEFAULT_BASELINE;
+        if (args[0].equals("record")) {
+            var positions = positions();
+            Map<String, Integer> depths = new LinkedHashMap<>();
+            for (String name : positions.keySet())
+                depths.put(name, DEPTH);
+            var measurements = measure(positions, depths, RUNS);
+            writeBaseline(file, measurements);
+            System.out.print(compare(measurements, measurements, TOLERANCE));
+            return;
+        }
+        var report = check(file);
+        System.out.print(report);
+        if (report.failed) {
+            System.out.println("Performance regression beyond tolerance");
+            System.exit(1);
+        }
+    }
+}
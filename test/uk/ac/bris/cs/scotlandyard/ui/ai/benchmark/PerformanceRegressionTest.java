@@ -0,0 +1,40 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Run the gate with -Dscotlandyard.perf=true, on the machine the baseline was recorded on
+ */
+public class PerformanceRegressionTest {
+    @Test
+    @EnabledIfSystemProperty(named = "scotlandyard.perf", matches = "true")
+    public void testNoRegressionAgainstBaseline() throws IOException {
+        var report = PerformanceGate.check(PerformanceGate.DEFAULT_BASELINE);
+        System.out.print(report);
+        assertFalse(report.failed, "Performance regression beyond tolerance\n" + report);
+    }
+
+    @Test
+    public void testNoiseAndToleranceBothNeeded() {
+        var baseline = List.of(
+                new PerformanceGate.Measurement("quiet", 5, 1000, 100, 1, 50),
+                new PerformanceGate.Measurement("noisy", 5, 1000, 100, 20, 50));
+        var slower = List.of(
+                new PerformanceGate.Measurement("quiet", 5, 1000, 125, 1, 50),
+                new PerformanceGate.Measurement("noisy", 5, 1000, 125, 20, 50));
+        var report = PerformanceGate.compare(baseline, slower, 0.15);
+        assertTrue(report.failed);
+        assertTrue(report.table.lines().anyMatch(line -> line.startsWith("quiet") && line.contains("SLOWER")));
+        assertTrue(report.table.lines().anyMatch(line -> line.startsWith("noisy") && !line.contains("SLOWER")));
+
+        var allocating = List.of(new PerformanceGate.Measurement("quiet", 5, 1000, 100, 1, 80));
+        assertTrue(PerformanceGate.compare(baseline.subList(0, 1), allocating, 0.15).table.contains("MORE ALLOCATION"));
+        assertFalse(PerformanceGate.compare(baseline, baseline, 0.15).failed);
+    }
+}
@@ -0,0 +1,205 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import uk.ac.bris.cs.scotlandyard.model.*;
+import uk.ac.bris.cs.scotlandyard.ui.ai.Evaluator;
+import uk.ac.bris.cs.scotlandyard.ui.ai.GameRecord;
+import uk.ac.bris.cs.scotlandyard.ui.ai.GameRecordReader;
+import uk.ac.bris.cs.scotlandyard.ui.ai.GameRecordWriter;
+import uk.ac.bris.cs.scotlandyard.ui.ai.MapTables;
+import uk.ac.bris.cs.scotlandyard.ui.ai.Utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+/**
+ * Reproducible corpus of positions where MrX is to move, sampled across every round of seeded games
+ * Positions are stored as {@link GameRecord}s of the game up to the position (winner NONE),
+ * so a corpus is just a game record file and replaying a record rebuilds the position with its tickets
+ * Phases are read from the record without replaying it, so loading one phase only replays that phase
+ * Usage: PositionCorpus output-file [games [positions-per-game [seed [engine-depth]]]]
+ */
+public final class PositionCorpus {
+    /** corpus the benchmarks use unless scotlandyard.corpus says otherwise */
+    public static final Path DEFAULT_PATH = Paths.get(System.getProperty("scotlandyard.corpus",
+            "test/uk/ac/bris/cs/scotlandyard/ui/ai/benchmark/data/positions.sygr"));
+    /** chance that a detective plays a random move instead of closing in on MrX */
+    private static final double DETECTIVE_RANDOMNESS = 0.5;
+
+    /**
+     * Part of the game a position belongs to, by the number of rounds MrX has played
+     */
+    public enum Phase {
+        /** before MrX's first reveal */
+        OPENING,
+        /** MrX has been seen, tickets are still plentiful */
+        MIDGAME,
+        /** last half of the game, tickets are running out */
+        ENDGAME;
+
+        static Phase of(int mrXRounds) {
+            if (mrXRounds < 3)
+                return OPENING;
+            return mrXRounds < 13 ? MIDGAME : ENDGAME;
+        }
+    }
+
+    private PositionCorpus() {}
+
+    /**
+     * Play seeded games on the standard map and append positions sampled from them
+     * MrX plays random moves, or the engine's move at the given depth; detectives mostly close in on MrX
+     * Each game's positions are picked in turn from each phase it reached, so that late phases aren't drowned out
+     * @param output corpus file, appended to if it exists
+     * @param games number of games
+     * @param positionsPerGame positions sampled per game, among the ones where MrX is to move
+     * @param seed seed of the games and of the sampling
+     * @param engineDepth MrX's search depth, 0 for random moves
+     * @return number of positions written
+     * @throws IOException if the corpus can't be written
+     */
+    public static int generate(Path output, int games, int positionsPerGame, long seed, int engineDepth)
+            throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var tables = MapTables.of(setup.graph);
+        var random = new Random(seed);
+        int written = 0;
+        try (var writer = new GameRecordWriter(output)) {
+            for (int game = 0; game < games; game++) {
+                Board.GameState state = SyntheticMap.randomState(setup, random);
+                int[] start = locations(state);
+                int[] locations = start.clone();
+                List<Move> moves = new ArrayList<>();
+                List<List<Integer>> turns = new ArrayList<>();
+                for (Phase ignored : Phase.values())
+                    turns.add(new ArrayList<>());
+                while (state.getWinner().isEmpty()) {
+                    var available = state.getAvailableMoves().asList();
+                    Move move;
+                    if (available.get(0).commencedBy().isMrX()) {
+                        turns.get(Phase.of(state.getMrXTravelLog().size()).ordinal()).add(moves.size());
+                        move = engineDepth > 0
+                                ? new Utils(state, engineDepth).benchmarking().next()
+                                : available.get(random.nextInt(available.size()));
+                    } else {
+                        move = detectiveMove(available, tables, locations[0], random);
+                    }
+                    locations[ALL_PIECES.indexOf(move.commencedBy())] = Evaluator.finalDestination(move);
+                    moves.add(move);
+                    state = state.advance(move);
+                }
+
+                for (List<Integer> phaseTurns : turns)
+                    Collections.shuffle(phaseTurns, random);
+                int picked = 0;
+                for (int i = 0; picked < positionsPerGame; i++) {
+                    boolean any = false;
+                    for (List<Integer> phaseTurns : turns) {
+                        if (i >= phaseTurns.size() || picked == positionsPerGame)
+                            continue;
+                        writer.append(GameRecord.STANDARD_MAP, setup.rounds, start,
+                                moves.subList(0, phaseTurns.get(i)), GameRecord.Winner.NONE);
+                        picked++;
+                        any = true;
+                    }
+                    if (!any)
+                        break;
+                }
+                written += picked;
+            }
+        }
+        return written;
+    }
+
+    private static Move detectiveMove(List<Move> available, MapTables tables, int mrX, Random random) {
+        if (random.nextDouble() < DETECTIVE_RANDOMNESS)
+            return available.get(random.nextInt(available.size()));
+        Piece mover = available.get(0).commencedBy();
+        Move best = null;
+        int closest = Integer.MAX_VALUE;
+        for (Move move : available) {
+            if (move.commencedBy() != mover)
+                continue;
+            int distance = tables.distance(((Move.SingleMove) move).destination, mrX);
+            if (distance < closest) {
+                closest = distance;
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    private static int[] locations(Board.GameState state) {
+        int[] locations = new int[ALL_PIECES.size()];
+        locations[0] = state.getAvailableMoves().iterator().next().source();
+        for (int i = 1; i < locations.length; i++)
+            locations[i] = state.getDetectiveLocation((Piece.Detective) ALL_PIECES.get(i)).orElseThrow();
+        return locations;
+    }
+
+    /**
+     * Load the positions of a phase
+     * @param corpus corpus file
+     * @param phase phase, null for every position
+     * @return positions, in file order
+     * @throws IOException if the corpus can't be read
+     */
+    public static ImmutableList<Board.GameState> load(Path corpus, Phase phase) throws IOException {
+        var setup = new GameSetup(standardGraph(), STANDARD24ROUNDS);
+        var positions = ImmutableList.<Board.GameState>builder();
+        try (var reader = GameRecordReader.open(corpus)) {
+            while (reader.nextRecord()) {
+                if (reader.mapId() != GameRecord.STANDARD_MAP)
+                    continue;
+                if (phase != null && phase(reader) != phase)
+                    continue;
+                positions.add(reader.replay(setup));
+            }
+        }
+        return positions.build();
+    }
+
+    /**
+     * @param reader positioned on a record
+     * @return phase of the position at the end of the record
+     */
+    static Phase phase(GameRecordReader reader) {
+        int mrXRounds = 0;
+        while (reader.nextMove())
+            if (reader.isMrX())
+                mrXRounds += reader.isDouble() ? 2 : 1;
+        reader.rewindMoves();
+        return Phase.of(mrXRounds);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: PositionCorpus output-file [games [positions-per-game [seed [engine-depth]]]]");
+            System.exit(1);
+        }
+        Path output = Paths.get(args[0]);
+        Files.deleteIfExists(output);
+        long start = System.currentTimeMillis();
+        int written = generate(output,
+                args.length > 1 ? Integer.parseInt(args[1]) : 100,
+                args.length > 2 ? Integer.parseInt(args[2]) : 3,
+                args.length > 3 ? Long.parseLong(args[3]) : 0,
+                args.length > 4 ? Integer.parseInt(args[4]) : 0);
+        System.out.printf("Wrote %d positions (%d bytes) in %d ms%n",
+                written, Files.size(output), System.currentTimeMillis() - start);
+        for (Phase phase : Phase.values()) {
+            long loadStart = System.nanoTime();
+            int count = load(output, phase).size();
+            System.out.printf("%s: %d positions, loaded in %.1f ms%n",
+                    phase, count, (System.nanoTime() - loadStart) / 1e6);
+        }
+    }
+}
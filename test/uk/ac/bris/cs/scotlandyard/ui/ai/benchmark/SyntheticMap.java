@@ -0,0 +1,100 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+import uk.ac.bris.cs.scotlandyard.model.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+/**
+ * Generates maps shaped like the standard board at any size, for scaling measurements
+ * Nodes 1..n sit on a square grid, taxi edges join grid neighbours (a few are dropped, the first row and column
+ * are always kept so the map stays connected), bus edges join every 3rd row/column, underground edges every 9th
+ * and a handful of ferry edges join random far apart nodes
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class SyntheticMap {
+    private static final double TAXI_DROP = 0.2;
+    private static final int BUS_SPACING = 3;
+    private static final int UNDERGROUND_SPACING = 9;
+    private static final int NODES_PER_FERRY = 1000;
+
+    private SyntheticMap() {}
+
+    /**
+     * @param nodes number of nodes
+     * @param seed seed of the dropped edges and ferries
+     * @return connected map with nodes 1..nodes
+     */
+    public static ImmutableValueGraph<Integer, ImmutableSet<Transport>> generate(int nodes, long seed) {
+        var random = new Random(seed);
+        int width = (int) Math.ceil(Math.sqrt(nodes));
+        MutableValueGraph<Integer, ImmutableSet<Transport>> graph = ValueGraphBuilder.undirected()
+                .expectedNodeCount(nodes)
+                .build();
+        for (int node = 1; node <= nodes; node++)
+            graph.addNode(node);
+
+        for (int i = 0; i < nodes; i++) {
+            int x = i % width, y = i / width;
+            if (x + 1 < width && i + 1 < nodes && (y == 0 || random.nextDouble() >= TAXI_DROP))
+                connect(graph, i + 1, i + 2, Transport.TAXI);
+            if (i + width < nodes && (x == 0 || random.nextDouble() >= TAXI_DROP))
+                connect(graph, i + 1, i + width + 1, Transport.TAXI);
+            lines(graph, i, x, y, width, nodes, BUS_SPACING, Transport.BUS);
+            lines(graph, i, x, y, width, nodes, UNDERGROUND_SPACING, Transport.UNDERGROUND);
+        }
+        for (int f = 0; f < Math.max(1, nodes / NODES_PER_FERRY); f++) {
+            int a = 1 + random.nextInt(nodes), b = 1 + random.nextInt(nodes);
+            if (a != b)
+                connect(graph, a, b, Transport.FERRY);
+        }
+        return ImmutableValueGraph.copyOf(graph);
+    }
+
+    /**
+     * Start of a game on the map with default tickets, every piece on a distinct random node
+     * @param setup setup of the map
+     * @param random source of the locations
+     * @return initial state
+     */
+    public static Board.GameState randomState(GameSetup setup, Random random) {
+        var nodes = ImmutableList.copyOf(setup.graph.nodes());
+        Set<Integer> used = new HashSet<>();
+        while (used.size() < DETECTIVES.size() + 1)
+            used.add(nodes.get(random.nextInt(nodes.size())));
+        var locations = used.iterator();
+        var mrX = new Player(Piece.MrX.MRX, defaultMrXTickets(), locations.next());
+        List<Player> detectives = new ArrayList<>();
+        for (Piece detective : DETECTIVES)
+            detectives.add(new Player(detective, defaultDetectiveTickets(), locations.next()));
+        return MyGameStateFactory.a(setup, mrX, ImmutableList.copyOf(detectives));
+    }
+
+    private static void lines(MutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+                              int i, int x, int y, int width, int nodes, int spacing, Transport transport) {
+        if (x % spacing != 0 || y % spacing != 0)
+            return;
+        if (x + spacing < width && i + spacing < nodes)
+            connect(graph, i + 1, i + spacing + 1, transport);
+        if (i + spacing * width < nodes)
+            connect(graph, i + 1, i + spacing * width + 1, transport);
+    }
+
+    private static void connect(MutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+                                int a, int b, Transport transport) {
+        var existing = graph.edgeValue(a, b);
+        graph.putEdgeValue(a, b, existing.isEmpty()
+                ? ImmutableSet.of(transport)
+                : ImmutableSet.<Transport>builder().addAll(existing.get()).add(transport).build());
+    }
+}